@@ -0,0 +1,125 @@
+package de.tuberlin.schenck.taverna_to_hadoop.benchmarks;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.taverna.scufl2.api.container.WorkflowBundle;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.T2FlowReader;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.TemplateTranslator;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.WorkflowManager;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Measures the phases of a conversion separately: reading the workflow with scufl2 or streaming it, building the job list,
+ * rendering the templates, compiling the generated class and packaging the jar.
+ * <p>
+ * Every phase starts from the result of the previous one, which is prepared once per trial.
+ * The workflows are the ones in <code>resources/workflows</code>, each also enlarged to a number of independent copies of itself.
+ * The templates and the translation checks of beanshell scripts are cached after the first conversion, like in batch mode and in the conversion server.
+ * <p>
+ * Run from the root of the project, so that the workflows and templates are found.
+ *
+ * @author schenck
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConversionBenchmark {
+	/** The workflow, without its extension. */
+	@Param({ "very_simple_one_beanshell", "very_simple_two_beanshells", "split_concat", "multiple_ports" })
+	public String workflow;
+
+	/** The number of copies of the workflow. Far more copies of multiple_ports exceed the size limit of the generated run method. */
+	@Param({ "1", "10", "25" })
+	public int copies;
+
+	private File workflowFile;
+	private File jarFile;
+	private ConversionContext context;
+	private WorkflowBundle workflowBundle;
+	private WorkflowManager workflowManager;
+	private String source;
+	private Map<String, byte[]> classFiles;
+
+	@Setup
+	public void setUp() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		workflowFile = File.createTempFile(workflow + "-" + copies + "-", ".t2flow");
+		WorkflowEnlarger.enlarge(new File("resources/workflows/" + workflow + ".t2flow"), workflowFile, copies);
+		jarFile = File.createTempFile(workflow + "-" + copies + "-", ".jar");
+
+		context = new ConversionContext();
+		workflowBundle = readWorkflow();
+		workflowManager = buildJobList();
+		source = renderTemplates();
+		classFiles = compile();
+		if(classFiles == null)
+			throw new IllegalStateException("Could not compile the class generated from " + workflowFile);
+	}
+
+	@TearDown
+	public void tearDown() {
+		workflowFile.delete();
+		jarFile.delete();
+	}
+
+	@Benchmark
+	public WorkflowBundle readWorkflow() throws Exception {
+		return WorkflowManager.getWorkflowBundleIO().readBundle(workflowFile, null);
+	}
+
+	@Benchmark
+	public WorkflowBundle streamWorkflow() {
+		return new T2FlowReader().read(workflowFile);
+	}
+
+	@Benchmark
+	public WorkflowManager buildJobList() throws Exception {
+		return new WorkflowManager(workflowBundle);
+	}
+
+	@Benchmark
+	public String renderTemplates() {
+		return new TemplateTranslator(new ConversionContext(context), false).translate(TemplateCache.getTemplate("hadoop-wrapper.jtemp"), workflowManager);
+	}
+
+	@Benchmark
+	public Map<String, byte[]> compile() {
+		return FileUtils.compileInMemory(qualifiedClassName(), source, new DiagnosticCollector<JavaFileObject>());
+	}
+
+	@Benchmark
+	public boolean packageJar() {
+		return FileUtils.writeJar(jarFile.getPath(), qualifiedClassName(), classFiles);
+	}
+
+	private String qualifiedClassName() {
+		return context.getHadoopPackageName() + "." + context.getHadoopClassName();
+	}
+}
@@ -0,0 +1,207 @@
+package de.tuberlin.schenck.taverna_to_hadoop.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.BufferRecordWriter;
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.CounterReporter;
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.CountingOutputFormat;
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.GeneratedClassLoader;
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.ListRecordReader;
+import de.tuberlin.schenck.taverna_to_hadoop.benchmarks.TaskHarness.SortedRecordIterator;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.TemplateTranslator;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.WorkflowManager;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Measures the throughput of the generated map and reduce classes of one activity within this JVM.
+ * <p>
+ * The workflow is converted and compiled in memory. The mapper and reducer then run on synthetic records
+ * with real Hadoop contexts, but without files: every port gets the same keys with values of the given size.
+ * Map outputs are serialized, sorted with the comparator of the generated job and fed to the reducer, like by the shuffle.
+ * The named outputs only count what is written to them.
+ * <p>
+ * Scores are per input record. Run with <code>-prof gc</code> to get the bytes allocated per record as <code>gc.alloc.rate.norm</code>.
+ * The activity has to take single values on all ports; by default the activities of multiple_ports with two and three ports are measured.
+ * <p>
+ * Run from the root of the project, so that the workflows and templates are found.
+ *
+ * @author schenck
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TaskBenchmark {
+	/** The number of records read per invocation by the mapper and the reducer, divisible by all port counts up to 6. */
+	private static final int RECORDS = 6000;
+
+	/** The workflow, without its extension. */
+	@Param({ "multiple_ports" })
+	public String workflow;
+
+	/** The activity to measure. */
+	@Param({ "one", "eight" })
+	public String activity;
+
+	/** The number of characters of each value. */
+	@Param({ "16", "1024" })
+	public int valueSize;
+
+	private Mapper<Text, Text, Object, Text>[] mappers;
+	private Mapper<Text, Text, Object, Text>.Context[] mapContexts;
+	private ListRecordReader[] readers;
+	private BufferRecordWriter<?, Text> mapOutput;
+
+	private Reducer<Object, Text, Text, Text> reducer;
+	private List<byte[][]> reduceInput;
+	private Configuration conf;
+	private WritableComparator groupingComparator;
+	private Class<?> mapOutputKeyClass;
+
+	@Setup
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() throws Exception {
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		// Convert the workflow and load the generated classes
+		ConversionContext context = new ConversionContext();
+		WorkflowManager workflowManager = new WorkflowManager("resources/workflows/" + workflow + ".t2flow");
+		String source = new TemplateTranslator(context, false).translate(TemplateCache.getTemplate("hadoop-wrapper.jtemp"), workflowManager);
+		String className = context.getHadoopPackageName() + "." + context.getHadoopClassName();
+		Map<String, byte[]> classFiles = FileUtils.compileInMemory(className, source, new DiagnosticCollector<JavaFileObject>());
+		if(classFiles == null)
+			throw new IllegalStateException("Could not compile the class generated from " + workflow);
+		ClassLoader loader = new GeneratedClassLoader(classFiles, getClass().getClassLoader());
+
+		BeanshellConfig activityConfig = null;
+		for(ActivityConfig candidate : workflowManager.getGraph().getActivities()) {
+			if(candidate.getName().equals(activity) && candidate instanceof BeanshellConfig)
+				activityConfig = (BeanshellConfig) candidate;
+		}
+		if(activityConfig == null || !activityConfig.isElementwise())
+			throw new IllegalArgumentException(activity + " is no beanshell activity of " + workflow + " that takes single values");
+		List<String> ports = new ArrayList<String>(activityConfig.getInputPorts().keySet());
+		if(RECORDS % ports.size() != 0)
+			throw new IllegalArgumentException(activity + " has " + ports.size() + " ports, which do not divide " + RECORDS + " records");
+
+		// The configuration of the job, with named outputs that count records
+		Job job = new Job(new Configuration());
+		job.getConfiguration().setClassLoader(loader);
+		for(String namedOutput : activityConfig.getOutputToNextInput().values()) {
+			MultipleOutputs.addNamedOutput(job, namedOutput, CountingOutputFormat.class, Text.class, Text.class);
+		}
+		conf = job.getConfiguration();
+
+		String prefix = className + "$" + activity;
+		Class<?> mapperClass = loader.loadClass(prefix + (activityConfig.isMapOnly() ? "BeanshellMap" : "MultipleInputsMap"));
+		mapOutputKeyClass = activityConfig.isMapOnly() ? Text.class : loader.loadClass(className + "$TaggedKey");
+
+		// One mapper per port, every port gets the same keys
+		Random random = new Random(42);
+		int keys = RECORDS / ports.size();
+		mappers = new Mapper[ports.size()];
+		mapContexts = new Mapper.Context[ports.size()];
+		readers = new ListRecordReader[ports.size()];
+		mapOutput = new BufferRecordWriter();
+		for(int port = 0; port < ports.size(); port++) {
+			List<Text[]> records = new ArrayList<Text[]>(keys);
+			for(int i = 0; i < keys; i++) {
+				records.add(new Text[] { new Text(String.format("%08d", i)), new Text(randomValue(random)) });
+			}
+
+			readers[port] = new ListRecordReader(records);
+			mappers[port] = (Mapper) mapperClass.newInstance();
+			FileSplit split = new FileSplit(new Path("out/" + activityConfig.getInputName() + ports.get(port) + "/input"), 0, 0, null);
+			mapContexts[port] = mappers[port].new Context(conf, new TaskAttemptID(), readers[port], (BufferRecordWriter) mapOutput, null, new CounterReporter(), split);
+		}
+
+		if(activityConfig.isMapOnly())
+			return;
+
+		// The input of the reducer is the sorted output of all mappers
+		map();
+		WritableComparator sortComparator = (WritableComparator) loader.loadClass(className + "$TaggedKey$Comparator").newInstance();
+		groupingComparator = (WritableComparator) loader.loadClass(className + "$TaggedKey$GroupingComparator").newInstance();
+		reduceInput = mapOutput.getSortedRecords(sortComparator);
+		reducer = (Reducer) loader.loadClass(prefix + "BeanshellReduce").newInstance();
+	}
+
+	/**
+	 * Runs the mappers of all ports on their records.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void map() throws Exception {
+		mapOutput.reset();
+		for(int port = 0; port < mappers.length; port++) {
+			readers[port].reset();
+			mappers[port].run(mapContexts[port]);
+		}
+	}
+
+	/**
+	 * Runs the reducer on the output of the mappers.
+	 * A reduce context reads its input only once, so every invocation creates a new one, like a new reduce task.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void reduce() throws Exception {
+		if(reducer == null)
+			throw new IllegalStateException(activity + " has no reducer");
+
+		CounterReporter reporter = new CounterReporter();
+		Reducer<Object, Text, Text, Text>.Context context = reducer.new Context(conf, new TaskAttemptID(), new SortedRecordIterator(reduceInput),
+				reporter.getCounter("task", "Reduce input keys"), reporter.getCounter("task", "Reduce input records"), null, null, reporter,
+				(RawComparator) groupingComparator, (Class) mapOutputKeyClass, Text.class);
+		reducer.run(context);
+	}
+
+	private String randomValue(Random random) {
+		char[] value = new char[valueSize];
+		for(int i = 0; i < value.length; i++) {
+			value[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(value);
+	}
+}
@@ -0,0 +1,263 @@
+package de.tuberlin.schenck.taverna_to_hadoop.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * In-process replacements for the parts of a Hadoop task around the map and reduce methods.
+ * Records are read from and written to memory, map outputs are serialized like into the sort buffer of a real task.
+ *
+ * @author schenck
+ *
+ */
+public class TaskHarness {
+	/**
+	 * Reads the same records again after every {@link #reset()}.
+	 */
+	public static class ListRecordReader extends RecordReader<Text, Text> {
+		private List<Text[]> records;
+		private int next;
+		private Text[] current;
+
+		public ListRecordReader(List<Text[]> records) {
+			this.records = records;
+		}
+
+		public void reset() {
+			next = 0;
+			current = null;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) {
+		}
+
+		@Override
+		public boolean nextKeyValue() {
+			if(next == records.size())
+				return false;
+			current = records.get(next++);
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() {
+			return current[0];
+		}
+
+		@Override
+		public Text getCurrentValue() {
+			return current[1];
+		}
+
+		@Override
+		public float getProgress() {
+			return records.isEmpty() ? 1 : (float) next / records.size();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Serializes every record into a buffer, which can be read again as input of a reducer.
+	 */
+	public static class BufferRecordWriter<K extends Writable, V extends Writable> extends RecordWriter<K, V> {
+		private DataOutputBuffer buffer = new DataOutputBuffer();
+		private List<int[]> offsets = new ArrayList<int[]>();
+
+		public void reset() {
+			buffer.reset();
+			offsets.clear();
+		}
+
+		@Override
+		public void write(K key, V value) throws IOException {
+			int start = buffer.getLength();
+			key.write(buffer);
+			int middle = buffer.getLength();
+			value.write(buffer);
+			offsets.add(new int[] { start, middle, buffer.getLength() });
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) {
+		}
+
+		/**
+		 * @param comparator the sort comparator of the job
+		 * @return the serialized records sorted like by the shuffle, each as serialized key and value
+		 */
+		public List<byte[][]> getSortedRecords(final WritableComparator comparator) {
+			List<byte[][]> result = new ArrayList<byte[][]>(offsets.size());
+			byte[] data = buffer.getData();
+			for(int[] offset : offsets) {
+				byte[] key = new byte[offset[1] - offset[0]];
+				byte[] value = new byte[offset[2] - offset[1]];
+				System.arraycopy(data, offset[0], key, 0, key.length);
+				System.arraycopy(data, offset[1], value, 0, value.length);
+				result.add(new byte[][] { key, value });
+			}
+
+			// Stable, so values of the same key and port keep their order
+			Collections.sort(result, new Comparator<byte[][]>() {
+				@Override
+				public int compare(byte[][] record1, byte[][] record2) {
+					return comparator.compare(record1[0], 0, record1[0].length, record2[0], 0, record2[0].length);
+				}
+			});
+
+			return result;
+		}
+	}
+
+	/**
+	 * Feeds serialized, sorted records to a reducer.
+	 */
+	public static class SortedRecordIterator implements RawKeyValueIterator {
+		private List<byte[][]> records;
+		private int next;
+		private DataInputBuffer key = new DataInputBuffer();
+		private DataInputBuffer value = new DataInputBuffer();
+		private Progress progress = new Progress();
+
+		public SortedRecordIterator(List<byte[][]> records) {
+			this.records = records;
+		}
+
+		@Override
+		public DataInputBuffer getKey() {
+			return key;
+		}
+
+		@Override
+		public DataInputBuffer getValue() {
+			return value;
+		}
+
+		@Override
+		public boolean next() {
+			if(next == records.size())
+				return false;
+			byte[][] record = records.get(next++);
+			key.reset(record[0], record[0].length);
+			value.reset(record[1], record[1].length);
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public Progress getProgress() {
+			return progress;
+		}
+	}
+
+	/**
+	 * Counts the records and bytes written to the named outputs, and discards them.
+	 */
+	public static class CountingOutputFormat extends OutputFormat<Text, Text> {
+		/** The records written by all tasks of this JVM. */
+		public static long records;
+		/** The bytes of keys and values written by all tasks of this JVM. */
+		public static long bytes;
+
+		@Override
+		public RecordWriter<Text, Text> getRecordWriter(TaskAttemptContext context) {
+			return new RecordWriter<Text, Text>() {
+				@Override
+				public void write(Text key, Text value) {
+					records++;
+					bytes += key.getLength() + value.getLength();
+				}
+
+				@Override
+				public void close(TaskAttemptContext context) {
+				}
+			};
+		}
+
+		@Override
+		public void checkOutputSpecs(JobContext context) {
+		}
+
+		@Override
+		public OutputCommitter getOutputCommitter(TaskAttemptContext context) {
+			return null;
+		}
+	}
+
+	/**
+	 * Keeps the counters of a task.
+	 */
+	public static class CounterReporter extends StatusReporter {
+		private Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+
+		public Counters getCounters() {
+			return counters;
+		}
+	}
+
+	/**
+	 * Loads the classes of a generated job from memory.
+	 */
+	public static class GeneratedClassLoader extends ClassLoader {
+		private Map<String, byte[]> classFiles;
+
+		public GeneratedClassLoader(Map<String, byte[]> classFiles, ClassLoader parent) {
+			super(parent);
+			this.classFiles = classFiles;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] classFile = classFiles.get(name);
+			if(classFile == null)
+				throw new ClassNotFoundException(name);
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package de.tuberlin.schenck.taverna_to_hadoop.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Creates synthetically enlarged variants of t2flow workflows.
+ * The enlarged workflow contains independent copies of all processors, workflow ports and data links of the top level dataflow.
+ * Everything else is copied verbatim, so the result is read and converted just like the original.
+ *
+ * @author schenck
+ *
+ */
+public class WorkflowEnlarger {
+	/**
+	 * Writes a workflow with the given number of copies of another workflow.
+	 * The names of the processors and workflow ports of copy <code>i</code> get the suffix <code>x&lt;i&gt;</code>.
+	 *
+	 * @param input the t2flow file
+	 * @param output the enlarged t2flow file
+	 * @param copies the number of copies
+	 * @throws Exception if the workflow cannot be read or written
+	 */
+	public static void enlarge(File input, File output, int copies) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(input);
+
+		Element dataflow = null;
+		for(Element candidate : children(document.getDocumentElement(), "dataflow")) {
+			if("top".equals(candidate.getAttribute("role")))
+				dataflow = candidate;
+		}
+		if(dataflow == null)
+			throw new IllegalArgumentException("No top level dataflow in " + input);
+
+		Element[] containers = {
+				child(dataflow, "inputPorts"), child(dataflow, "outputPorts"),
+				child(dataflow, "processors"), child(dataflow, "datalinks") };
+		List<List<Element>> originals = new ArrayList<List<Element>>();
+		for(Element container : containers) {
+			originals.add(children(container, null));
+		}
+
+		// The originals become the first copy, so they are renamed last
+		for(int i = copies - 1; i >= 0; i--) {
+			String suffix = "x" + i;
+			for(int j = 0; j < containers.length; j++) {
+				for(Element original : originals.get(j)) {
+					Element copy = i == 0 ? original : (Element) original.cloneNode(true);
+					rename(copy, suffix);
+					if(i > 0)
+						containers[j].appendChild(copy);
+				}
+			}
+		}
+
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(output));
+	}
+
+	/**
+	 * Renames the processor, port or data link of one copy.
+	 *
+	 * @param element a port, processor or data link of the top level dataflow
+	 * @param suffix the suffix of the copy
+	 */
+	private static void rename(Element element, String suffix) {
+		if(element.getLocalName().equals("datalink")) {
+			for(Element end : children(element, null)) {
+				// Data links refer to processors by name and to workflow ports by port name
+				Element name = child(end, "processor".equals(end.getAttribute("type")) ? "processor" : "port");
+				name.setTextContent(name.getTextContent() + suffix);
+			}
+		} else {
+			Element name = child(element, "name");
+			name.setTextContent(name.getTextContent() + suffix);
+		}
+	}
+
+	private static Element child(Element parent, String localName) {
+		List<Element> result = children(parent, localName);
+		if(result.isEmpty())
+			throw new IllegalArgumentException("No " + localName + " in " + parent.getLocalName());
+		return result.get(0);
+	}
+
+	private static List<Element> children(Element parent, String localName) {
+		List<Element> result = new ArrayList<Element>();
+		for(Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if(node instanceof Element && (localName == null || localName.equals(node.getLocalName())))
+				result.add((Element) node);
+		}
+		return result;
+	}
+}
@@ -1,6 +1,7 @@
 package de.tuberlin.schenck.taverna_to_hadoop;
 
-import java.util.Locale;
+import java.io.File;
+import java.io.IOException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -15,7 +16,15 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
+import de.tuberlin.schenck.taverna_to_hadoop.convert.BatchConverter;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionProfile;
 import de.tuberlin.schenck.taverna_to_hadoop.convert.TavernaToHadoopConverter;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.WorkflowManager;
+import de.tuberlin.schenck.taverna_to_hadoop.exceptions.UnsupportedWorkflowException;
+import de.tuberlin.schenck.taverna_to_hadoop.local.LocalWorkflowRunner;
+import de.tuberlin.schenck.taverna_to_hadoop.server.ConversionClient;
+import de.tuberlin.schenck.taverna_to_hadoop.server.ConversionServer;
 import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
 
 /**
@@ -45,6 +54,28 @@ public class TavernaToHadoopMain {
 	/** The output file for the conversion. */
 	private static String outputFilename;
 	
+	/** The settings for the conversion. */
+	private static ConversionContext context = new ConversionContext();
+	
+	/** Whether or not many workflows are converted at once. */
+	private static boolean batch = false;
+	/** The maximum number of concurrent conversions in batch and server mode, or the number of threads of a local run. */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	
+	/** Whether or not to run the workflow within this JVM instead of converting it. */
+	private static boolean runLocal = false;
+	/** The directory containing the inputs of a local run. */
+	private static String dataDirectory = "";
+	
+	/** Whether or not to run as conversion server. */
+	private static boolean server = false;
+	/** Whether or not to send the conversion to a running conversion server. */
+	private static boolean connect = false;
+	/** Whether or not to stop a running conversion server. */
+	private static boolean stopServer = false;
+	/** The port of the conversion server. */
+	private static int port = ConversionServer.DEFAULT_PORT;
+	
 	/**
 	 * Runs the conversion program.
 	 * 
@@ -55,12 +86,50 @@ public class TavernaToHadoopMain {
     	parseCommandLine(args);
 		resetLogger();
 		
-    	TavernaToHadoopConverter converter = new TavernaToHadoopConverter(inputFilename, outputFilename);
-    	converter.convert();
+    	if(server) {
+    		try {
+    			new ConversionServer(port, threads).run();
+    		} catch (IOException e) {
+    			logger.error("Could not run conversion server on port " + port, e);
+    			System.exit(1);
+    		}
+    	} else if(stopServer) {
+    		if(!new ConversionClient(port).shutdown())
+    			System.exit(1);
+    	} else if(connect) {
+    		if(!new ConversionClient(port).convert(inputFilename, outputFilename, context))
+    			System.exit(1);
+    	} else if(runLocal) {
+    		if(!runLocally())
+    			System.exit(1);
+    	} else if(batch) {
+    		BatchConverter batchConverter = new BatchConverter(BatchConverter.findWorkflows(inputFilename), outputFilename, context, threads);
+    		if(batchConverter.convert() > 0)
+    			System.exit(1);
+    	} else {
+    		TavernaToHadoopConverter converter = new TavernaToHadoopConverter(inputFilename, outputFilename, context);
+    		if(!converter.convert())
+    			System.exit(1);
+    	}
 
     	logger.info("Done");
     }
 
+	/**
+	 * Runs the workflow within this JVM on the inputs in the data directory.
+	 * 
+	 * @return whether or not the workflow ran
+	 */
+	private static boolean runLocally() {
+		try {
+			WorkflowManager workflowManager = new WorkflowManager(inputFilename);
+			return new LocalWorkflowRunner(workflowManager.getGraph(), dataDirectory, threads).run();
+		} catch (UnsupportedWorkflowException e) {
+			logger.error("The workflow you tried to run is not supported.", e);
+			return false;
+		}
+	}
+
 	private static void resetLogger() {
 		// Reset logger
 		Logger.getRootLogger().getLoggerRepository().resetConfiguration();
@@ -134,6 +203,69 @@ public class TavernaToHadoopMain {
 		Option hadoopPackageNameOption = OptionBuilder.create("P");
 		options.addOption(hadoopPackageNameOption);
 		
+		// In memory compilation option
+		options.addOption("m", "inmemory", false, "compile and package the generated class in memory, without writing sources or classes to disk");
+		
+		// Build cache option
+		OptionBuilder.withArgName("path");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("directory of a build cache; unchanged workflows are taken from there instead of being converted again");
+		OptionBuilder.withLongOpt("cache");
+		Option cacheOption = OptionBuilder.create("k");
+		options.addOption(cacheOption);
+		
+		// Shared libraries option
+		OptionBuilder.withArgName("path");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("directory on the default file system, e.g. HDFS, to publish the libraries of the jobs to once; jobs get them from the distributed cache instead of their jar");
+		OptionBuilder.withLongOpt("sharedlibs");
+		Option sharedLibrariesOption = OptionBuilder.create("L");
+		options.addOption(sharedLibrariesOption);
+		
+		// Reader option
+		options.addOption("w", "streamingreader", false, "stream t2flow workflows, reading only what the conversion needs; workflows that cannot be streamed are read with scufl2");
+		
+		// Profile option
+		OptionBuilder.withArgName("file");
+		OptionBuilder.hasOptionalArg();
+		OptionBuilder.withDescription("measure wall time, CPU time and allocated bytes of every phase of the conversion; printed as table or appended to <file> as JSON, one line per workflow");
+		OptionBuilder.withLongOpt("profile");
+		Option profileOption = OptionBuilder.create("f");
+		options.addOption(profileOption);
+		
+		// Batch option
+		options.addOption("b", "batch", false, "convert many workflows at once; input is a directory or a comma separated list of workflows, output is a directory");
+		
+		// Threads option
+		OptionBuilder.withArgName("number");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("maximum number of concurrent conversions in batch mode, or threads of a local run (default: number of processors)");
+		OptionBuilder.withLongOpt("threads");
+		Option threadsOption = OptionBuilder.create("j");
+		options.addOption(threadsOption);
+		
+		// Local run options
+		options.addOption("r", "runlocal", false, "run the workflow within this JVM on the inputs in <datadir>/out instead of converting it; no output file needed");
+		
+		OptionBuilder.withArgName("path");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("directory containing the folder \"out\" with the inputs of a local run (default: working directory)");
+		OptionBuilder.withLongOpt("datadir");
+		Option dataDirectoryOption = OptionBuilder.create("d");
+		options.addOption(dataDirectoryOption);
+		
+		// Server options
+		options.addOption("s", "server", false, "run as conversion server on the local machine, keeping everything loaded between conversions");
+		options.addOption("c", "connect", false, "let a running conversion server do the conversion");
+		options.addOption("x", "stopserver", false, "stop a running conversion server");
+		
+		OptionBuilder.withArgName("port");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("port of the conversion server (default: " + ConversionServer.DEFAULT_PORT + ")");
+		OptionBuilder.withLongOpt("port");
+		Option portOption = OptionBuilder.create("p");
+		options.addOption(portOption);
+		
 		// Help options
 		options.addOption("h", "help", false, "print help");
 		options.addOption("v", "version", false, "print version");
@@ -172,28 +304,59 @@ public class TavernaToHadoopMain {
 				}
 			}
 			
+			// Server mode?
+			server = cmd.hasOption("s");
+			connect = cmd.hasOption("c");
+			stopServer = cmd.hasOption("x");
+			String portValue = cmd.getOptionValue("p");
+			if(portValue != null) {
+				try {
+					port = Integer.parseInt(portValue);
+				} catch (NumberFormatException e) {
+					logger.warn("Could not set port '" + portValue + "'");
+				}
+			}
+			
+			// Templates and reader are loaded by the server when it starts, they cannot change per conversion
+			if(connect && (cmd.hasOption("t") || cmd.hasOption("w"))) {
+				logger.error("Options -t and -w apply to the whole server, pass them when starting it with -s.");
+				printHelp(1);
+			}
+			
+			// Local run?
+			runLocal = cmd.hasOption("r");
+			String dataDirectoryValue = cmd.getOptionValue("d");
+			if(dataDirectoryValue != null)
+				dataDirectory = dataDirectoryValue;
+			
 			// Get and check mandatory arguments
 			inputFilename = cmd.getOptionValue("i");
 			outputFilename = cmd.getOptionValue("o");
-			if(inputFilename == null || outputFilename == null) {
+			if(runLocal && inputFilename == null) {
+				logger.error("You need to set the name of the input file.");
+				printHelp(1);
+			} else if(!runLocal && !server && !stopServer && (inputFilename == null || outputFilename == null)) {
 				logger.error("You need to set names for the input and output files.");
 				printHelp(1);
 			}
 			logger.info("Input file: " + inputFilename);
 			logger.info("Output file: " + outputFilename);
 			
-			// Name Hadoop Class if not already done by user
-			if(Config.getHadoopClassName().equals("HadoopClass")) {
-				String newHadoopClassName = outputFilename.substring(0, outputFilename.lastIndexOf("."));
-				
-				// Remove all non-word characters
-				newHadoopClassName = newHadoopClassName.replaceAll("\\W", "");
-				
-				// First letter uppercase
-				newHadoopClassName = newHadoopClassName.substring(0, 1).toUpperCase(Locale.ENGLISH) + newHadoopClassName.substring(1);
-				Config.setHadoopClassName(newHadoopClassName);
+			// Batch mode?
+			batch = cmd.hasOption("b");
+			String threadsValue = cmd.getOptionValue("j");
+			if(threadsValue != null) {
+				try {
+					threads = Integer.parseInt(threadsValue);
+				} catch (NumberFormatException e) {
+					logger.warn("Could not set number of threads '" + threadsValue + "'");
+				}
 			}
 			
+			// Name Hadoop Class if not already done by user, in batch mode every workflow gets its own
+			if(!batch && outputFilename != null)
+				context.setHadoopClassName(ConversionContext.hadoopClassNameFromFile(outputFilename));
+			
 			// New path to templates?
 			String newPathToTemplates = cmd.getOptionValue("t");
 			if(newPathToTemplates != null) {
@@ -209,15 +372,48 @@ public class TavernaToHadoopMain {
 			// New hadoop class name?
 			String hadoopClassName = cmd.getOptionValue("C");
 			if(hadoopClassName != null) {
-				Config.setHadoopClassName(hadoopClassName);
+				context.setHadoopClassName(hadoopClassName);
 			}
 
 			// New hadoop package name?
 			String hadoopPackageName = cmd.getOptionValue("P");
 			if(hadoopPackageName != null) {
-				Config.setHadoopPackageName(hadoopPackageName);
+				context.setHadoopPackageName(hadoopPackageName);
+			}
+			logger.info("Hadoop Class Name: " + context.getHadoopClassName());
+			
+			// Build cache?
+			String cacheDirectory = cmd.getOptionValue("k");
+			if(cacheDirectory != null) {
+				context.setCacheDirectory(new File(cacheDirectory).getAbsolutePath());
+				logger.info("Build cache: " + cacheDirectory);
+			}
+			
+			// Shared libraries?
+			String sharedLibraryDirectory = cmd.getOptionValue("L");
+			if(sharedLibraryDirectory != null) {
+				context.setSharedLibraryDirectory(sharedLibraryDirectory);
+				logger.info("Shared libraries: " + sharedLibraryDirectory);
+			}
+			
+			// Streaming reader?
+			if(cmd.hasOption("w")) {
+				Config.setStreamingReader(true);
+				logger.info("Streaming t2flow workflows");
+			}
+			
+			// Profile?
+			if(cmd.hasOption("f")) {
+				String profileFile = cmd.getOptionValue("f");
+				context.setProfile(new ConversionProfile(true, profileFile));
+				logger.info("Profiling conversion" + (profileFile != null ? " into " + profileFile : ""));
+			}
+			
+			// Compile in memory?
+			if(cmd.hasOption("m")) {
+				context.setInMemoryCompilation(true);
+				logger.info("Compiling in memory");
 			}
-			logger.info("Hadoop Class Name: " + Config.getHadoopClassName());
 		} catch (ParseException e) {
 			logger.error("Could not parse command line", e);
 			printHelp(1);
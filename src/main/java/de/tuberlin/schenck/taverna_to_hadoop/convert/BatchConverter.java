@@ -0,0 +1,168 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Converts many workflows concurrently within one JVM.
+ * The workflows are converted on a bounded thread pool, sharing the java compiler and the loaded templates.
+ * Every conversion gets its own {@link de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext}.
+ * Workflows whose classes would have the same name as the classes of another workflow, e.g. because the class name is given,
+ * are compiled in memory, since on disk they would share their source and class files.
+ * Jars are named after their workflows; workflows with the same file name in different directories get a number appended, e.g. <code>wf-2.jar</code>.
+ *
+ * @author schenck
+ *
+ */
+public class BatchConverter {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(BatchConverter.class);
+
+	/** The file endings of workflows that are picked up from directories. */
+	private static final String[] WORKFLOW_ENDINGS = { ".t2flow", ".wfbundle" };
+
+	/** The workflows to convert. */
+	private List<String> inputWorkflows;
+	/** The directory for the resulting jars. */
+	private String outputDirectory;
+	/** The settings all conversions start with. */
+	private ConversionContext settings;
+	/** The maximum number of concurrent conversions. */
+	private int threads;
+
+	/**
+	 * Creates the batch converter.
+	 *
+	 * @param inputWorkflows the workflows to convert
+	 * @param outputDirectory the directory for the resulting jars
+	 * @param settings the settings all conversions start with
+	 * @param threads the maximum number of concurrent conversions
+	 */
+	public BatchConverter(List<String> inputWorkflows, String outputDirectory, ConversionContext settings, int threads) {
+		this.inputWorkflows = inputWorkflows;
+		this.outputDirectory = outputDirectory.endsWith("/") ? outputDirectory : outputDirectory + "/";
+		this.settings = settings;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Finds the workflows to convert.
+	 *
+	 * @param input a directory containing workflows or a comma separated list of workflows
+	 * @return the paths of the workflows
+	 */
+	public static List<String> findWorkflows(String input) {
+		File directory = new File(input);
+		if(!directory.isDirectory())
+			return Arrays.asList(input.split(","));
+
+		List<String> result = new ArrayList<String>();
+		String[] fileNames = directory.list();
+		if(fileNames == null)
+			return result;
+
+		Arrays.sort(fileNames);
+		for(String fileName : fileNames) {
+			for(String ending : WORKFLOW_ENDINGS) {
+				if(fileName.endsWith(ending)) {
+					result.add(new File(directory, fileName).getPath());
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Converts all workflows and waits until all conversions are done.
+	 *
+	 * @return the number of conversions that failed
+	 */
+	public int convert() {
+		logger.info("Converting " + inputWorkflows.size() + " workflows with " + threads + " threads.");
+		new File(outputDirectory).mkdirs();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<String, Future<Boolean>> conversions = new LinkedHashMap<String, Future<Boolean>>(inputWorkflows.size());
+		Set<String> qualifiedClassNames = new HashSet<String>();
+		Set<String> jarNames = new HashSet<String>();
+
+		for(String inputWorkflow : inputWorkflows) {
+			String jarName = jarName(inputWorkflow, jarNames);
+
+			ConversionContext context = new ConversionContext(settings);
+			if(context.getHadoopClassName().equals(ConversionContext.DEFAULT_HADOOP_CLASS_NAME))
+				context.setHadoopClassName(ConversionContext.hadoopClassNameFromFile(jarName));
+			if(!qualifiedClassNames.add(context.getHadoopPackageName() + "." + context.getHadoopClassName()) && !context.isInMemoryCompilation()) {
+				logger.info("Compiling " + inputWorkflow + " in memory, its class name " + context.getHadoopClassName() + " is already taken.");
+				context.setInMemoryCompilation(true);
+			}
+
+			final TavernaToHadoopConverter converter = new TavernaToHadoopConverter(inputWorkflow, outputDirectory + jarName, context);
+			conversions.put(inputWorkflow, executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return converter.convert();
+				}
+			}));
+		}
+		executor.shutdown();
+
+		int failures = 0;
+		for(Map.Entry<String, Future<Boolean>> conversion : conversions.entrySet()) {
+			try {
+				if(!conversion.getValue().get()) {
+					logger.error("Could not convert " + conversion.getKey());
+					failures++;
+				}
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while converting " + conversion.getKey(), e);
+				failures++;
+			} catch (ExecutionException e) {
+				logger.error("Could not convert " + conversion.getKey(), e.getCause());
+				failures++;
+			}
+		}
+
+		logger.info("Converted " + (inputWorkflows.size() - failures) + " of " + inputWorkflows.size() + " workflows.");
+		return failures;
+	}
+
+	/**
+	 * Names the jar of a workflow after the workflow, so that it does not overwrite the jar of another workflow of the batch.
+	 *
+	 * @param inputWorkflow the workflow
+	 * @param jarNames the names of the jars of the other workflows, the new name is added
+	 * @return the name of the jar, e.g. <code>wf.jar</code> or <code>wf-2.jar</code> if that is already taken
+	 */
+	static String jarName(String inputWorkflow, Set<String> jarNames) {
+		String baseName = new File(inputWorkflow).getName();
+		if(baseName.lastIndexOf(".") > 0)
+			baseName = baseName.substring(0, baseName.lastIndexOf("."));
+
+		String jarName = baseName + ".jar";
+		if(jarNames.add(jarName))
+			return jarName;
+
+		for(int i = 2; !jarNames.add(jarName); i++) {
+			jarName = baseName + "-" + i + ".jar";
+		}
+		logger.info("Writing " + inputWorkflow + " to " + jarName + ", since another workflow of the batch has the same file name.");
+
+		return jarName;
+	}
+}
@@ -0,0 +1,237 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+
+/**
+ * A content addressed cache for built jars.
+ * <p>
+ * The key of a jar is a hash over the workflow file, the contents of all templates and the settings of the conversion,
+ * as well as over the classes of the converter and the libraries the generated classes are compiled against and packaged with.
+ * If a workflow is converted again without any changes, the previously built jar is returned instead of generating and compiling it again.
+ *
+ * @author schenck
+ *
+ */
+public class BuildCache {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(BuildCache.class);
+
+	/** Classes of the converter and of the libraries whose jars or class directories are part of every key. */
+	private static final String[] CODE_CLASSES = { "de.tuberlin.schenck.taverna_to_hadoop.convert.BuildCache", "bsh.Interpreter", "org.apache.hadoop.mapreduce.Job" };
+
+	/** The hash of the code of the converter and its libraries, computed once per JVM. */
+	private static byte[] codeHash;
+
+	/** The directory of the cache. */
+	private File directory;
+
+	/**
+	 * Creates the cache.
+	 *
+	 * @param directory the directory of the cache, created if necessary
+	 */
+	public BuildCache(String directory) {
+		this.directory = new File(directory);
+		this.directory.mkdirs();
+	}
+
+	/**
+	 * Computes the key of a conversion.
+	 *
+	 * @param inputWorkflow the workflow that is to be translated
+	 * @param context the settings of the conversion
+	 * @return the key or <code>null</code> if it cannot be computed
+	 */
+	public String computeKey(String inputWorkflow, ConversionContext context) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			digest.update(getCodeHash());
+			update(digest, context.getHadoopClassName());
+			update(digest, context.getHadoopPackageName());
+			update(digest, String.valueOf(context.isInMemoryCompilation()));
+			update(digest, String.valueOf(context.getSharedLibraryDirectory()));
+
+			// Workflow
+			InputStream inputStream = null;
+			try {
+				inputStream = new BufferedInputStream(new FileInputStream(inputWorkflow));
+				byte[] buffer = new byte[8192];
+				int count;
+				while((count = inputStream.read(buffer)) != -1) {
+					digest.update(buffer, 0, count);
+				}
+			} finally {
+				try { inputStream.close(); } catch (Exception e) { /* ignore */ }
+			}
+
+			// Templates
+			String[] templateNames = new File(Config.getPathToTemplates()).list();
+			if(templateNames != null) {
+				Arrays.sort(templateNames);
+				for(String templateName : templateNames) {
+					update(digest, templateName);
+					update(digest, TemplateCache.getTemplate(templateName).getSource());
+				}
+			}
+
+			StringBuilder keyBuilder = new StringBuilder();
+			for(byte b : digest.digest()) {
+				keyBuilder.append(String.format("%02x", b));
+			}
+
+			return keyBuilder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			logger.error("Could not compute build cache key", e);
+		} catch (IOException e) {
+			logger.error("Could not compute build cache key for " + inputWorkflow, e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Hashes the jars or class directories of the converter and the libraries of the generated classes,
+	 * so that a different converter or library never gets jars built by another one.
+	 *
+	 * @return the hash
+	 */
+	private static synchronized byte[] getCodeHash() throws NoSuchAlgorithmException, IOException {
+		if(codeHash != null)
+			return codeHash;
+
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		for(String className : CODE_CLASSES) {
+			update(digest, className);
+			File location = getCodeLocation(className);
+			if(location == null) {
+				logger.debug("No code location of " + className);
+			} else if(location.isDirectory()) {
+				for(Path classFile : listFiles(location.toPath())) {
+					update(digest, location.toPath().relativize(classFile).toString());
+					digest.update(Files.readAllBytes(classFile));
+				}
+			} else if(location.isFile()) {
+				digest.update(Files.readAllBytes(location.toPath()));
+			}
+		}
+
+		codeHash = digest.digest();
+		return codeHash;
+	}
+
+	/**
+	 * @param className the name of a class
+	 * @return the jar or class directory the class is loaded from, <code>null</code> if unknown
+	 */
+	private static File getCodeLocation(String className) {
+		try {
+			CodeSource codeSource = Class.forName(className, false, BuildCache.class.getClassLoader()).getProtectionDomain().getCodeSource();
+			if(codeSource != null && codeSource.getLocation() != null)
+				return new File(codeSource.getLocation().toURI());
+		} catch (ClassNotFoundException e) {
+			// Not on the class path, not part of the key
+		} catch (URISyntaxException e) {
+			// Not a file
+		} catch (IllegalArgumentException e) {
+			// Not a file
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param directory a class directory
+	 * @return all files within the directory, sorted
+	 */
+	private static List<Path> listFiles(Path directory) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(files);
+
+		return files;
+	}
+
+	/**
+	 * Adds a <code>String</code> to the digest, terminated so that concatenations cannot collide.
+	 *
+	 * @param digest the digest
+	 * @param value the <code>String</code>
+	 * @throws UnsupportedEncodingException never, UTF-8 is always supported
+	 */
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		digest.update(value.getBytes("UTF-8"));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Copies a cached jar to the output, if there is one.
+	 *
+	 * @param key the key of the conversion
+	 * @param output where the resulting jar should be put
+	 * @return whether or not the jar was found in the cache
+	 */
+	public boolean restore(String key, String output) {
+		File cachedJar = new File(directory, key + ".jar");
+		if(!cachedJar.isFile())
+			return false;
+
+		try {
+			Files.copy(cachedJar.toPath(), new File(output).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Could not copy jar from build cache", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Puts a built jar into the cache.
+	 *
+	 * @param key the key of the conversion
+	 * @param output the built jar
+	 */
+	public void store(String key, String output) {
+		File cachedJar = new File(directory, key + ".jar");
+		File temporaryJar = new File(directory, key + ".jar." + Thread.currentThread().getId() + ".tmp");
+
+		try {
+			// Copy first and rename afterwards, so that concurrent conversions never see half written jars
+			Files.copy(new File(output).toPath(), temporaryJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temporaryJar.toPath(), cachedJar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Could not put jar into build cache", e);
+			temporaryJar.delete();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The state of a single conversion.
+ * Every {@link de.tuberlin.schenck.taverna_to_hadoop.convert.TavernaToHadoopConverter} gets its own context,
+ * so that several conversions can run in parallel within one JVM.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionContext {
+	/** The default class name of the resulting hadoop class. */
+	public static final String DEFAULT_HADOOP_CLASS_NAME = "HadoopClass";
+
+	/** The default package name for the resulting hadoop class. */
+	public static final String DEFAULT_HADOOP_PACKAGE_NAME = "de.tuberlin.schenck.taverna_to_hadoop.generated";
+
+	/** The class name of the resulting hadoop class. */
+	private String hadoopClassName = DEFAULT_HADOOP_CLASS_NAME;
+
+	/** The package name for the resulting hadoop class. */
+	private String hadoopPackageName = DEFAULT_HADOOP_PACKAGE_NAME;
+
+	/** Whether the generated class is compiled and packaged in memory instead of being written to disk first. */
+	private boolean inMemoryCompilation = false;
+
+	/** The directory of the build cache, <code>null</code> if no cache is used. */
+	private String cacheDirectory;
+
+	/** The directory the libraries of the jobs are shared in, <code>null</code> to package them into the jar. */
+	private String sharedLibraryDirectory;
+
+	/** The profile of the phases of this conversion, disabled by default. */
+	private ConversionProfile profile = new ConversionProfile();
+
+	/** A counter that increases every time it is called */
+	private int counter = 0;
+
+	/** A map from activity URIs to templates. */
+	private Map<String, String> mapperMapping = new HashMap<String, String>();
+	/** A map from activity URIs to templates. */
+	private Map<String, String> reducerMapping = new HashMap<String, String>();
+
+	/** All Activity Configurations. */
+	private Map<String, String> activityConfigurations = new HashMap<String, String>();
+
+	/**
+	 * Constructs a context with the default settings.
+	 */
+	public ConversionContext() {
+	}
+
+	/**
+	 * Constructs a context with the settings of another context.
+	 * The state of the other conversion, e.g. the counter, is not copied.
+	 *
+	 * @param other the context to take the settings from
+	 */
+	public ConversionContext(ConversionContext other) {
+		hadoopClassName = other.hadoopClassName;
+		hadoopPackageName = other.hadoopPackageName;
+		inMemoryCompilation = other.inMemoryCompilation;
+		cacheDirectory = other.cacheDirectory;
+		sharedLibraryDirectory = other.sharedLibraryDirectory;
+		profile = new ConversionProfile(other.profile.isEnabled(), other.profile.getJsonFile());
+	}
+
+	/**
+	 * Derives a hadoop class name from the name of the resulting jar.
+	 *
+	 * @param outputFilename the name of the resulting jar
+	 * @return the class name
+	 */
+	public static String hadoopClassNameFromFile(String outputFilename) {
+		String newHadoopClassName = outputFilename;
+
+		// Remove path and file ending
+		newHadoopClassName = newHadoopClassName.substring(newHadoopClassName.lastIndexOf("/") + 1);
+		if(newHadoopClassName.lastIndexOf(".") > 0)
+			newHadoopClassName = newHadoopClassName.substring(0, newHadoopClassName.lastIndexOf("."));
+
+		// Remove all non-word characters
+		newHadoopClassName = newHadoopClassName.replaceAll("\\W", "");
+		if(newHadoopClassName.length() == 0)
+			return DEFAULT_HADOOP_CLASS_NAME;
+
+		// First letter uppercase
+		return newHadoopClassName.substring(0, 1).toUpperCase(Locale.ENGLISH) + newHadoopClassName.substring(1);
+	}
+
+	public String getActivityConfiguration(String key) {
+		return activityConfigurations.get(key);
+	}
+
+	public void putActivityConfiguration(String key, String value) {
+		activityConfigurations.put(key, value);
+	}
+
+	public String getHadoopClassName() {
+		return hadoopClassName;
+	}
+
+	public void setHadoopClassName(String hadoopClassName) {
+		this.hadoopClassName = hadoopClassName;
+	}
+
+	public String getHadoopPackageName() {
+		return hadoopPackageName;
+	}
+
+	public void setHadoopPackageName(String hadoopPackageName) {
+		this.hadoopPackageName = hadoopPackageName;
+	}
+
+	public boolean isInMemoryCompilation() {
+		return inMemoryCompilation;
+	}
+
+	public void setInMemoryCompilation(boolean inMemoryCompilation) {
+		this.inMemoryCompilation = inMemoryCompilation;
+	}
+
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public String getSharedLibraryDirectory() {
+		return sharedLibraryDirectory;
+	}
+
+	public void setSharedLibraryDirectory(String sharedLibraryDirectory) {
+		this.sharedLibraryDirectory = sharedLibraryDirectory;
+	}
+
+	public ConversionProfile getProfile() {
+		return profile;
+	}
+
+	public void setProfile(ConversionProfile profile) {
+		this.profile = profile;
+	}
+
+	public int getCount() {
+		return counter++;
+	}
+
+	public Map<String, String> getMapperMapping() {
+		return mapperMapping;
+	}
+
+	public void setMapperMapping(Map<String, String> mapperMapping) {
+		this.mapperMapping = mapperMapping;
+	}
+
+	public Map<String, String> getReducerMapping() {
+		return reducerMapping;
+	}
+
+	public void setReducerMapping(Map<String, String> reducerMapping) {
+		this.reducerMapping = reducerMapping;
+	}
+}
@@ -0,0 +1,291 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Measures the phases of a single conversion.
+ * For every phase the wall time, the CPU time and the bytes allocated by the converting thread are recorded.
+ * Phases can be nested, e.g. the rendering of every activity within the rendering of the templates.
+ * Phases with the same name and parent are added up.
+ * <p>
+ * A disabled profile measures nothing, so the phases can be marked unconditionally.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionProfile {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(ConversionProfile.class);
+
+	/** Separates the names of nested phases. */
+	private static final String SEPARATOR = "/";
+
+	/** The thread bean to read the CPU time and allocated bytes from. */
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/** Whether or not the phases are measured. */
+	private boolean enabled;
+
+	/** The file the profile is appended to as JSON, <code>null</code> to print it as table. */
+	private String jsonFile;
+
+	/** The measured phases by path, in the order they were started. */
+	private Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+	/** The phases that are currently running, the innermost first. */
+	private Deque<Running> running = new ArrayDeque<Running>();
+
+	/**
+	 * Creates a disabled profile.
+	 */
+	public ConversionProfile() {
+	}
+
+	/**
+	 * Creates a profile.
+	 *
+	 * @param enabled whether or not the phases are measured
+	 * @param jsonFile the file the profile is appended to as JSON, <code>null</code> to print it as table
+	 */
+	public ConversionProfile(boolean enabled, String jsonFile) {
+		this.enabled = enabled;
+		this.jsonFile = jsonFile;
+	}
+
+	/**
+	 * Starts a phase within the current phase.
+	 *
+	 * @param name the name of the phase
+	 */
+	public void start(String name) {
+		if(!enabled)
+			return;
+
+		String path = running.isEmpty() ? name : running.peek().path + SEPARATOR + name;
+		// Registered at the start, so that every phase is listed before its nested phases
+		if(!phases.containsKey(path))
+			phases.put(path, new Phase());
+
+		running.push(new Running(path, System.nanoTime(), getCpuTime(), getAllocatedBytes()));
+	}
+
+	/**
+	 * Stops the current phase and adds its measurements.
+	 */
+	public void stop() {
+		if(!enabled || running.isEmpty())
+			return;
+
+		Running current = running.pop();
+		Phase phase = phases.get(current.path);
+		phase.count++;
+		phase.wallTime += System.nanoTime() - current.wallTime;
+		if(current.cpuTime >= 0)
+			phase.cpuTime += getCpuTime() - current.cpuTime;
+		if(current.allocatedBytes >= 0)
+			phase.allocatedBytes += getAllocatedBytes() - current.allocatedBytes;
+	}
+
+	/**
+	 * Prints the profile as table or appends it to the JSON file, one line per conversion.
+	 *
+	 * @param workflow the converted workflow
+	 */
+	public void report(String workflow) {
+		if(!enabled)
+			return;
+
+		if(jsonFile == null) {
+			System.out.print(toTable(workflow));
+			return;
+		}
+
+		synchronized(ConversionProfile.class) {
+			BufferedWriter writer = null;
+			try {
+				writer = new BufferedWriter(new FileWriter(jsonFile, true));
+				writer.write(toJson(workflow));
+				writer.write("\n");
+			} catch (IOException e) {
+				logger.error("Could not write profile to " + jsonFile, e);
+			} finally {
+				try { writer.close(); } catch (Exception e) { /* ignore */ }
+			}
+		}
+	}
+
+	/**
+	 * Formats the profile as table, nested phases are indented.
+	 *
+	 * @param workflow the converted workflow
+	 * @return the table
+	 */
+	public String toTable(String workflow) {
+		StringBuilder tableBuilder = new StringBuilder();
+		tableBuilder.append("Profile of ").append(workflow).append("\n");
+		tableBuilder.append(String.format(Locale.ENGLISH, "%-40s %6s %12s %12s %14s%n", "Phase", "Count", "Wall (ms)", "CPU (ms)", "Allocated (KB)"));
+
+		for(Map.Entry<String, Phase> entry : phases.entrySet()) {
+			String path = entry.getKey();
+			Phase phase = entry.getValue();
+
+			StringBuilder nameBuilder = new StringBuilder();
+			int start = 0;
+			int separator;
+			while((separator = path.indexOf(SEPARATOR, start)) >= 0) {
+				nameBuilder.append("  ");
+				start = separator + SEPARATOR.length();
+			}
+			nameBuilder.append(path.substring(start));
+
+			tableBuilder.append(String.format(Locale.ENGLISH, "%-40s %6d %12.1f %12.1f %14d%n", nameBuilder, phase.count,
+					phase.wallTime / 1e6, phase.cpuTime / 1e6, phase.allocatedBytes / 1024));
+		}
+
+		return tableBuilder.toString();
+	}
+
+	/**
+	 * Formats the profile as JSON object.
+	 * Times are given in nanoseconds, nested phases are named by their path.
+	 *
+	 * @param workflow the converted workflow
+	 * @return the JSON object in a single line
+	 */
+	public String toJson(String workflow) {
+		StringBuilder jsonBuilder = new StringBuilder();
+		jsonBuilder.append("{\"workflow\":");
+		appendJsonString(jsonBuilder, workflow);
+		jsonBuilder.append(",\"phases\":[");
+
+		boolean first = true;
+		for(Map.Entry<String, Phase> entry : phases.entrySet()) {
+			if(!first)
+				jsonBuilder.append(",");
+			first = false;
+
+			Phase phase = entry.getValue();
+			jsonBuilder.append("{\"phase\":");
+			appendJsonString(jsonBuilder, entry.getKey());
+			jsonBuilder.append(",\"count\":").append(phase.count);
+			jsonBuilder.append(",\"wallNanos\":").append(phase.wallTime);
+			jsonBuilder.append(",\"cpuNanos\":").append(phase.cpuTime);
+			jsonBuilder.append(",\"allocatedBytes\":").append(phase.allocatedBytes);
+			jsonBuilder.append("}");
+		}
+
+		jsonBuilder.append("]}");
+		return jsonBuilder.toString();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public String getJsonFile() {
+		return jsonFile;
+	}
+
+	/**
+	 * Appends a <code>String</code> as JSON string.
+	 *
+	 * @param builder the builder to append to
+	 * @param value the value
+	 */
+	private static void appendJsonString(StringBuilder builder, String value) {
+		builder.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if(c < ' ')
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		builder.append('"');
+	}
+
+	/**
+	 * Gets the CPU time of the current thread.
+	 *
+	 * @return the CPU time in nanoseconds or -1 if it is not supported
+	 */
+	private static long getCpuTime() {
+		if(!threadBean.isCurrentThreadCpuTimeSupported())
+			return -1;
+
+		return threadBean.getCurrentThreadCpuTime();
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread.
+	 * This is only supported by JVMs that provide <code>com.sun.management.ThreadMXBean</code>.
+	 *
+	 * @return the allocated bytes or -1 if it is not supported
+	 */
+	private static long getAllocatedBytes() {
+		if(!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+
+		com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+		if(!sunThreadBean.isThreadAllocatedMemorySupported() || !sunThreadBean.isThreadAllocatedMemoryEnabled())
+			return -1;
+
+		return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * The measurements of a phase, added up over all its runs.
+	 */
+	private static class Phase {
+		/** How often the phase ran. */
+		private int count;
+		/** The wall time in nanoseconds. */
+		private long wallTime;
+		/** The CPU time in nanoseconds. */
+		private long cpuTime;
+		/** The allocated bytes. */
+		private long allocatedBytes;
+	}
+
+	/**
+	 * A phase that is currently running, with the measurements at its start.
+	 */
+	private static class Running {
+		/** The names of the phase and its parents. */
+		private final String path;
+		/** The wall time at the start. */
+		private final long wallTime;
+		/** The CPU time at the start, -1 if not supported. */
+		private final long cpuTime;
+		/** The allocated bytes at the start, -1 if not supported. */
+		private final long allocatedBytes;
+
+		/**
+		 * Creates the running phase.
+		 *
+		 * @param path the names of the phase and its parents
+		 * @param wallTime the wall time at the start
+		 * @param cpuTime the CPU time at the start
+		 * @param allocatedBytes the allocated bytes at the start
+		 */
+		private Running(String path, long wallTime, long cpuTime, long allocatedBytes) {
+			this.path = path;
+			this.wallTime = wallTime;
+			this.cpuTime = cpuTime;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,520 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+import uk.org.taverna.scufl2.api.activity.Activity;
+import uk.org.taverna.scufl2.api.configurations.Configuration;
+import uk.org.taverna.scufl2.api.container.WorkflowBundle;
+import uk.org.taverna.scufl2.api.core.DataLink;
+import uk.org.taverna.scufl2.api.core.Processor;
+import uk.org.taverna.scufl2.api.core.Workflow;
+import uk.org.taverna.scufl2.api.dispatchstack.DispatchStackLayer;
+import uk.org.taverna.scufl2.api.iterationstrategy.CrossProduct;
+import uk.org.taverna.scufl2.api.iterationstrategy.DotProduct;
+import uk.org.taverna.scufl2.api.iterationstrategy.IterationStrategyParent;
+import uk.org.taverna.scufl2.api.iterationstrategy.PortNode;
+import uk.org.taverna.scufl2.api.port.InputProcessorPort;
+import uk.org.taverna.scufl2.api.port.InputWorkflowPort;
+import uk.org.taverna.scufl2.api.port.OutputProcessorPort;
+import uk.org.taverna.scufl2.api.port.OutputWorkflowPort;
+import uk.org.taverna.scufl2.api.port.ReceiverPort;
+import uk.org.taverna.scufl2.api.port.SenderPort;
+import uk.org.taverna.scufl2.api.profiles.ProcessorBinding;
+import uk.org.taverna.scufl2.api.profiles.Profile;
+import uk.org.taverna.scufl2.translator.t2flow.defaultactivities.BeanshellActivityParser;
+
+/**
+ * Reads <code>.t2flow</code> files in a single streaming pass.
+ * <p>
+ * Only what the conversion needs is extracted: the ports of the workflow, the processors with their port depths,
+ * iteration strategies, beanshell scripts and parallelize layers, and the data links.
+ * Everything else, e.g. other dispatch layers and annotations, is skipped without being held in memory.
+ * The result is a workflow bundle with only these parts, so that the graph is built exactly like from a bundle read by scufl2.
+ * <p>
+ * Workflows this reader cannot handle, e.g. with nested workflows or other activities than beanshell, are left to the scufl2 reader.
+ *
+ * @author schenck
+ *
+ */
+public class T2FlowReader {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(T2FlowReader.class);
+
+	/** The class of beanshell activities in t2flow. */
+	private static final String BEANSHELL_ACTIVITY_CLASS = "net.sf.taverna.t2.activities.beanshell.BeanshellActivity";
+
+	/** The class of the dispatch layer in t2flow that limits the concurrent invocations of a processor. */
+	private static final String PARALLELIZE_LAYER_CLASS = "net.sf.taverna.t2.workflowmodel.processor.dispatch.layers.Parallelize";
+
+	/** The factory for the stream readers, shared by all conversions. */
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	/** The bundle that is read. */
+	private WorkflowBundle workflowBundle;
+
+	/** The main workflow of the bundle. */
+	private Workflow workflow;
+
+	/** The profile binding the activities to the processors. */
+	private Profile profile;
+
+	/**
+	 * Reads a workflow.
+	 *
+	 * @param file the <code>.t2flow</code> file
+	 * @return the workflow bundle or <code>null</code> if the workflow has to be read by scufl2
+	 */
+	public WorkflowBundle read(File file) {
+		InputStream inputStream = null;
+		XMLStreamReader reader = null;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(file));
+			reader = inputFactory.createXMLStreamReader(inputStream);
+
+			workflowBundle = new WorkflowBundle();
+			profile = new Profile();
+			profile.setParent(workflowBundle);
+			workflowBundle.setMainProfile(profile);
+
+			reader.nextTag();
+			while(nextChild(reader)) {
+				if(!reader.getLocalName().equals("dataflow")) {
+					skip(reader);
+				} else if("top".equals(reader.getAttributeValue(null, "role")) && workflow == null) {
+					readDataflow(reader);
+				} else {
+					logger.debug("Nested workflow in " + file);
+					return null;
+				}
+			}
+
+			if(workflow == null)
+				return null;
+
+			return workflowBundle;
+		} catch (UnsupportedException e) {
+			logger.debug("Cannot stream " + file + ": " + e.getMessage());
+		} catch (XMLStreamException e) {
+			logger.debug("Cannot stream " + file + ": " + e.getMessage());
+		} catch (IOException e) {
+			logger.debug("Cannot stream " + file + ": " + e.getMessage());
+		} finally {
+			try { reader.close(); } catch (Exception e) { /* ignore */ }
+			try { inputStream.close(); } catch (Exception e) { /* ignore */ }
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the top dataflow into the main workflow.
+	 * Processors always come before the data links.
+	 *
+	 * @param reader the reader, at the start of the dataflow
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the dataflow contains parts this reader cannot handle
+	 */
+	private void readDataflow(XMLStreamReader reader) throws XMLStreamException, UnsupportedException {
+		workflow = new Workflow();
+		workflow.setParent(workflowBundle);
+		workflowBundle.setMainWorkflow(workflow);
+
+		while(nextChild(reader)) {
+			String element = reader.getLocalName();
+			if(element.equals("inputPorts")) {
+				while(nextChild(reader)) {
+					PortDefinition port = readPort(reader);
+					new InputWorkflowPort(workflow, port.name).setDepth(port.depth);
+				}
+			} else if(element.equals("outputPorts")) {
+				while(nextChild(reader)) {
+					new OutputWorkflowPort(workflow, readPort(reader).name);
+				}
+			} else if(element.equals("processors")) {
+				while(nextChild(reader)) {
+					readProcessor(reader);
+				}
+			} else if(element.equals("conditions")) {
+				if(nextChild(reader))
+					throw new UnsupportedException("conditions");
+			} else if(element.equals("datalinks")) {
+				while(nextChild(reader)) {
+					readDataLink(reader);
+				}
+			} else {
+				skip(reader);
+			}
+		}
+	}
+
+	/**
+	 * Reads a processor, its activity and its iteration strategy.
+	 *
+	 * @param reader the reader, at the start of the processor
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the processor has no or several activities, or not a beanshell activity
+	 */
+	private void readProcessor(XMLStreamReader reader) throws XMLStreamException, UnsupportedException {
+		Processor processor = null;
+		boolean hasActivity = false;
+
+		while(nextChild(reader)) {
+			String element = reader.getLocalName();
+			if(element.equals("name")) {
+				processor = new Processor(workflow, reader.getElementText());
+			} else if(processor == null) {
+				throw new UnsupportedException("processor without name");
+			} else if(element.equals("inputPorts")) {
+				while(nextChild(reader)) {
+					PortDefinition port = readPort(reader);
+					new InputProcessorPort(processor, port.name).setDepth(port.depth);
+				}
+			} else if(element.equals("outputPorts")) {
+				while(nextChild(reader)) {
+					PortDefinition port = readPort(reader);
+					OutputProcessorPort outputPort = new OutputProcessorPort(processor, port.name);
+					outputPort.setDepth(port.depth);
+					outputPort.setGranularDepth(port.granularDepth != null ? port.granularDepth : port.depth);
+				}
+			} else if(element.equals("activities")) {
+				while(nextChild(reader)) {
+					if(hasActivity)
+						throw new UnsupportedException("several activities in " + processor.getName());
+					readActivity(reader, processor);
+					hasActivity = true;
+				}
+			} else if(element.equals("dispatchStack")) {
+				readDispatchStack(reader, processor);
+			} else if(element.equals("iterationStrategyStack")) {
+				readIterationStrategyStack(reader, processor);
+			} else {
+				skip(reader);
+			}
+		}
+
+		if(!hasActivity)
+			throw new UnsupportedException("no activity in " + (processor != null ? processor.getName() : "processor"));
+	}
+
+	/**
+	 * Reads the activity of a processor and binds it to the processor.
+	 * Only the script is taken from the configuration of a beanshell activity.
+	 *
+	 * @param reader the reader, at the start of the activity
+	 * @param processor the processor
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the activity is not a beanshell activity
+	 */
+	private void readActivity(XMLStreamReader reader, Processor processor) throws XMLStreamException, UnsupportedException {
+		String script = null;
+
+		while(nextChild(reader)) {
+			String element = reader.getLocalName();
+			if(element.equals("class")) {
+				String activityClass = reader.getElementText().trim();
+				if(!activityClass.equals(BEANSHELL_ACTIVITY_CLASS))
+					throw new UnsupportedException("activity " + activityClass);
+			} else if(element.equals("configBean")) {
+				// The configuration bean of the activity, the script is one of its children
+				while(nextChild(reader)) {
+					while(nextChild(reader)) {
+						if(reader.getLocalName().equals("script"))
+							script = reader.getElementText();
+						else
+							skip(reader);
+					}
+				}
+			} else {
+				skip(reader);
+			}
+		}
+
+		if(script == null)
+			throw new UnsupportedException("no script in " + processor.getName());
+
+		Activity activity = new Activity();
+		activity.setName(processor.getName());
+		activity.setConfigurableType(BeanshellActivityParser.ACTIVITY_URI);
+		activity.setParent(profile);
+
+		ProcessorBinding processorBinding = new ProcessorBinding();
+		processorBinding.setBoundProcessor(processor);
+		processorBinding.setBoundActivity(activity);
+		processorBinding.setParent(profile);
+
+		Configuration configuration = new Configuration();
+		configuration.setName(processor.getName());
+		configuration.setConfigures(activity);
+		configuration.setConfigurableType(BeanshellActivityParser.ACTIVITY_URI.resolve("#Config"));
+		configuration.getPropertyResource().addPropertyAsString(BeanshellActivityParser.ACTIVITY_URI.resolve("#script"), script);
+		configuration.setParent(profile);
+	}
+
+	/**
+	 * Reads the parallelize layer of the dispatch stack of a processor, all other layers are skipped.
+	 *
+	 * @param reader the reader, at the start of the dispatch stack
+	 * @param processor the processor
+	 * @throws XMLStreamException if the file cannot be parsed
+	 */
+	private void readDispatchStack(XMLStreamReader reader, Processor processor) throws XMLStreamException {
+		while(nextChild(reader)) {
+			// <dispatchLayer>
+			boolean parallelize = false;
+			String maxJobs = null;
+			while(nextChild(reader)) {
+				String element = reader.getLocalName();
+				if(element.equals("class")) {
+					parallelize = reader.getElementText().trim().equals(PARALLELIZE_LAYER_CLASS);
+				} else if(element.equals("configBean") && parallelize) {
+					while(nextChild(reader)) {
+						while(nextChild(reader)) {
+							if(reader.getLocalName().equals("maxJobs"))
+								maxJobs = reader.getElementText().trim();
+							else
+								skip(reader);
+						}
+					}
+				} else {
+					skip(reader);
+				}
+			}
+
+			if(maxJobs == null)
+				continue;
+
+			DispatchStackLayer layer = new DispatchStackLayer();
+			layer.setConfigurableType(WorkflowGraph.PARALLELIZE_URI);
+			layer.setParent(processor.getDispatchStack());
+
+			Configuration configuration = new Configuration();
+			configuration.setName(processor.getName() + "-parallelize");
+			configuration.setConfigures(layer);
+			configuration.setConfigurableType(WorkflowGraph.PARALLELIZE_URI.resolve("#Config"));
+			configuration.getPropertyResource().addPropertyAsString(WorkflowGraph.PARALLELIZE_URI.resolve("#maxJobs"), maxJobs);
+			configuration.setParent(profile);
+		}
+	}
+
+	/**
+	 * Reads the iteration strategy of a processor.
+	 *
+	 * @param reader the reader, at the start of the iteration strategy stack
+	 * @param processor the processor
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the strategy refers to unknown ports
+	 */
+	private void readIterationStrategyStack(XMLStreamReader reader, Processor processor) throws XMLStreamException, UnsupportedException {
+		while(nextChild(reader)) {
+			// <iteration>
+			while(nextChild(reader)) {
+				// <strategy>
+				while(nextChild(reader)) {
+					readIterationStrategyNode(reader, processor, processor.getIterationStrategyStack());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a node of an iteration strategy and its children.
+	 *
+	 * @param reader the reader, at the start of the node
+	 * @param processor the processor
+	 * @param parent the parent of the node
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the strategy refers to unknown ports or contains unknown nodes
+	 */
+	private void readIterationStrategyNode(XMLStreamReader reader, Processor processor, IterationStrategyParent parent) throws XMLStreamException, UnsupportedException {
+		String element = reader.getLocalName();
+		if(element.equals("port")) {
+			InputProcessorPort inputPort = processor.getInputPorts().getByName(reader.getAttributeValue(null, "name"));
+			if(inputPort == null)
+				throw new UnsupportedException("unknown port in iteration strategy of " + processor.getName());
+
+			PortNode portNode = new PortNode(parent, inputPort);
+			portNode.setDesiredDepth(parseDepth(reader.getAttributeValue(null, "depth")));
+			skip(reader);
+			return;
+		}
+
+		IterationStrategyParent node;
+		if(element.equals("cross")) {
+			CrossProduct crossProduct = new CrossProduct();
+			crossProduct.setParent(parent);
+			node = crossProduct;
+		} else if(element.equals("dot")) {
+			DotProduct dotProduct = new DotProduct();
+			dotProduct.setParent(parent);
+			node = dotProduct;
+		} else {
+			throw new UnsupportedException("iteration strategy " + element);
+		}
+
+		while(nextChild(reader)) {
+			readIterationStrategyNode(reader, processor, node);
+		}
+	}
+
+	/**
+	 * Reads a data link between ports that have already been read.
+	 *
+	 * @param reader the reader, at the start of the data link
+	 * @throws XMLStreamException if the file cannot be parsed
+	 * @throws UnsupportedException if the data link refers to unknown ports
+	 */
+	private void readDataLink(XMLStreamReader reader) throws XMLStreamException, UnsupportedException {
+		SenderPort from = null;
+		ReceiverPort to = null;
+
+		while(nextChild(reader)) {
+			String element = reader.getLocalName();
+			if(element.equals("sink") || element.equals("source")) {
+				boolean isProcessor = "processor".equals(reader.getAttributeValue(null, "type"));
+				String processorName = null;
+				String portName = null;
+				while(nextChild(reader)) {
+					if(reader.getLocalName().equals("processor"))
+						processorName = reader.getElementText();
+					else if(reader.getLocalName().equals("port"))
+						portName = reader.getElementText();
+					else
+						skip(reader);
+				}
+
+				Processor processor = isProcessor ? workflow.getProcessors().getByName(processorName) : null;
+				if(isProcessor && processor == null)
+					throw new UnsupportedException("data link to unknown processor " + processorName);
+
+				if(element.equals("sink"))
+					to = isProcessor ? processor.getInputPorts().getByName(portName) : workflow.getOutputPorts().getByName(portName);
+				else
+					from = isProcessor ? processor.getOutputPorts().getByName(portName) : workflow.getInputPorts().getByName(portName);
+			} else {
+				skip(reader);
+			}
+		}
+
+		if(from == null || to == null)
+			throw new UnsupportedException("data link between unknown ports");
+
+		new DataLink(workflow, from, to);
+	}
+
+	/**
+	 * Reads the definition of a port.
+	 *
+	 * @param reader the reader, at the start of the port
+	 * @return the definition of the port
+	 * @throws XMLStreamException if the file cannot be parsed
+	 */
+	private PortDefinition readPort(XMLStreamReader reader) throws XMLStreamException {
+		PortDefinition port = new PortDefinition();
+		while(nextChild(reader)) {
+			String element = reader.getLocalName();
+			if(element.equals("name"))
+				port.name = reader.getElementText();
+			else if(element.equals("depth"))
+				port.depth = parseDepth(reader.getElementText());
+			else if(element.equals("granularDepth"))
+				port.granularDepth = parseDepth(reader.getElementText());
+			else
+				skip(reader);
+		}
+
+		return port;
+	}
+
+	/**
+	 * @param depth a depth from the workflow, may be <code>null</code>
+	 * @return the depth, <code>null</code> if unknown
+	 */
+	private static Integer parseDepth(String depth) {
+		if(depth == null)
+			return null;
+
+		try {
+			return Integer.valueOf(depth.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Moves to the next child of the current element.
+	 *
+	 * @param reader the reader, at the start of the parent or at the end of a previous child
+	 * @return <code>true</code> at the start of the next child, <code>false</code> at the end of the parent
+	 * @throws XMLStreamException if the file cannot be parsed
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while(reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			if(event == XMLStreamConstants.END_ELEMENT)
+				return false;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Skips the current element and all its children.
+	 *
+	 * @param reader the reader, at the start of the element; afterwards at its end
+	 * @throws XMLStreamException if the file cannot be parsed
+	 */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if(event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * The definition of a port of a workflow or processor.
+	 */
+	private static class PortDefinition {
+		/** The name of the port. */
+		private String name;
+		/** The depth of the port, <code>null</code> if unknown. */
+		private Integer depth;
+		/** The granular depth of an output port, <code>null</code> if unknown. */
+		private Integer granularDepth;
+	}
+
+	/**
+	 * Thrown if the workflow contains something this reader cannot handle.
+	 */
+	private static class UnsupportedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * @param message what cannot be handled
+		 */
+		private UnsupportedException(String message) {
+			super(message);
+		}
+	}
+}
\ No newline at end of file
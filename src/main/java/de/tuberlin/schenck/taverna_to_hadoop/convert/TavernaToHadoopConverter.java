@@ -1,10 +1,19 @@
 package de.tuberlin.schenck.taverna_to_hadoop.convert;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 
+import uk.org.taverna.scufl2.api.container.WorkflowBundle;
+
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
 import de.tuberlin.schenck.taverna_to_hadoop.exceptions.UnsupportedWorkflowException;
-import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
 import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.JobDependencies;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.SharedLibraries;
 
 
 /**
@@ -21,6 +30,8 @@ public class TavernaToHadoopConverter {
 	private String inputWorkflow;
 	/** Path/file of the resulting Hadoop jar. */
 	private String outputHadoop;
+	/** The context of this conversion. */
+	private ConversionContext context;
 	
 	/**
 	 * Creates the converter.
@@ -28,34 +39,133 @@ public class TavernaToHadoopConverter {
 	 * 
 	 * @param inputWorkflow the workflow that is to be translated
 	 * @param outputHadoop where the resulting jar should be put
+	 * @param context the context of this conversion, not to be shared with other conversions
 	 */
-	public TavernaToHadoopConverter(String inputWorkflow, String outputHadoop) {
+	public TavernaToHadoopConverter(String inputWorkflow, String outputHadoop, ConversionContext context) {
 		this.inputWorkflow = inputWorkflow;
 		this.outputHadoop = outputHadoop;
+		this.context = context;
 	}
 
 	/**
 	 * Convert a workflow to a Hadoop program.
 	 * <p>
-	 * Reads the workflow first and converts it.
+	 * If a build cache is configured and contains a jar for the same workflow, templates and settings, that jar is used.
+	 * Otherwise reads the workflow first and converts it.
 	 * Then uses the appropriate templates to generate Hadoop jobs.
+	 * 
+	 * @return whether or not the Hadoop jar was created
 	 */
-	public void convert() {
+	public boolean convert() {
+		boolean result = convertWithCache();
+		context.getProfile().report(inputWorkflow);
+		
+		return result;
+	}
+	
+	/**
+	 * Takes the jar from the build cache if possible, otherwise generates it and stores it in the cache.
+	 * 
+	 * @return whether or not the Hadoop jar was created
+	 */
+	private boolean convertWithCache() {
+		ConversionProfile profile = context.getProfile();
+		BuildCache buildCache = null;
+		String key = null;
+		
+		if(context.getCacheDirectory() != null) {
+			profile.start("cache lookup");
+			buildCache = new BuildCache(context.getCacheDirectory());
+			key = buildCache.computeKey(inputWorkflow, context);
+			boolean restored = key != null && buildCache.restore(key, outputHadoop);
+			profile.stop();
+			
+			if(restored) {
+				logger.info("Took " + outputHadoop + " from build cache");
+				return true;
+			}
+		}
+		
+		boolean result = generate();
+		
+		if(result && key != null) {
+			profile.start("cache store");
+			buildCache.store(key, outputHadoop);
+			profile.stop();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads the workflow, generates the Hadoop class and packages it.
+	 * 
+	 * @return whether or not the Hadoop jar was created
+	 */
+	private boolean generate() {
+		ConversionProfile profile = context.getProfile();
 		WorkflowManager workflowManager = null;
 		
 		try {
-			workflowManager = new WorkflowManager(inputWorkflow);
+			profile.start("read workflow");
+			WorkflowBundle workflowBundle;
+			try {
+				workflowBundle = WorkflowManager.readWorkflow(inputWorkflow);
+			} finally {
+				profile.stop();
+			}
+			
+			profile.start("extract graph");
+			try {
+				workflowManager = new WorkflowManager(workflowBundle);
+			} finally {
+				profile.stop();
+			}
 		} catch (UnsupportedWorkflowException e) {
 			logger.error("The workflow you tried to convert is not supported.", e);
+			return false;
+		}
+		
+		// Translate Template, only write it to disk if it is compiled from there
+		boolean inMemory = context.isInMemoryCompilation();
+		TemplateTranslator translator = new TemplateTranslator(context, !inMemory);
+		String source = translator.translate(TemplateCache.getTemplate("hadoop-wrapper.jtemp"), workflowManager);
+		
+		profile.start("compile");
+		String qualifiedClassName = context.getHadoopPackageName() + "." + context.getHadoopClassName();
+		Map<String, byte[]> classFiles;
+		if(inMemory)
+			classFiles = FileUtils.compileInMemory(qualifiedClassName, source);
+		else
+			classFiles = FileUtils.compileOnDisk(context.getHadoopPackageName(), context.getHadoopClassName());
+		profile.stop();
+		if(classFiles == null)
+			return false;
+		
+		// Package only the library classes the job needs, or share the library jars between jobs
+		Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+		profile.start("resolve dependencies");
+		try {
+			JobDependencies dependencies = new JobDependencies(classFiles, getClass().getClassLoader());
+			String sharedLibraryDirectory = context.getSharedLibraryDirectory();
+			if(sharedLibraryDirectory != null) {
+				List<String> paths = SharedLibraries.publish(dependencies.getJars(), sharedLibraryDirectory);
+				if(paths == null)
+					return false;
+				resources.put(SharedLibraries.LIST_RESOURCE, SharedLibraries.list(paths));
+			}
+			dependencies.addTo(classFiles, resources, sharedLibraryDirectory != null);
+		} catch (IOException e) {
+			logger.error("Could not package the libraries of the job.", e);
+			return false;
+		} finally {
+			profile.stop();
 		}
 		
-		// Get input template from workflowManager
-		String template = FileUtils.readFileIntoString(Config.getPathToTemplates() + "hadoop-wrapper.jtemp");
+		profile.start("write jar");
+		boolean result = FileUtils.writeJar(outputHadoop, qualifiedClassName, classFiles, resources);
+		profile.stop();
 		
-		// Translate Template
-		TemplateTranslator translator = new TemplateTranslator(true);
-		template = translator.translate(template, workflowManager);
-				
-		FileUtils.createJar(outputHadoop, Config.getHadoopPackageName(), Config.getHadoopClassName());
+		return result;
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,491 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import uk.org.taverna.scufl2.api.common.Scufl2Tools;
+import uk.org.taverna.scufl2.api.configurations.Configuration;
+import uk.org.taverna.scufl2.api.container.WorkflowBundle;
+import uk.org.taverna.scufl2.api.core.DataLink;
+import uk.org.taverna.scufl2.api.core.Processor;
+import uk.org.taverna.scufl2.api.core.Workflow;
+import uk.org.taverna.scufl2.api.dispatchstack.DispatchStackLayer;
+import uk.org.taverna.scufl2.api.iterationstrategy.CrossProduct;
+import uk.org.taverna.scufl2.api.iterationstrategy.IterationStrategyNode;
+import uk.org.taverna.scufl2.api.iterationstrategy.IterationStrategyStack;
+import uk.org.taverna.scufl2.api.iterationstrategy.IterationStrategyTopNode;
+import uk.org.taverna.scufl2.api.iterationstrategy.PortNode;
+import uk.org.taverna.scufl2.api.port.InputProcessorPort;
+import uk.org.taverna.scufl2.api.port.InputWorkflowPort;
+import uk.org.taverna.scufl2.api.port.OutputProcessorPort;
+import uk.org.taverna.scufl2.api.port.OutputWorkflowPort;
+import uk.org.taverna.scufl2.api.port.ReceiverPort;
+import uk.org.taverna.scufl2.api.port.SenderPort;
+import uk.org.taverna.scufl2.api.profiles.Profile;
+import uk.org.taverna.scufl2.api.property.PropertyException;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.exceptions.UnsupportedWorkflowException;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+
+/**
+ * The workflow as a directed acyclic graph.
+ * Processors are the nodes, represented by their {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig}s,
+ * data links between processors are the edges.
+ * <p>
+ * The graph is built in one pass over the data links and sorted topologically in O(V+E).
+ * Afterwards the depth of the lists flowing along every data link is derived in topological order.
+ *
+ * @author schenck
+ *
+ */
+public class WorkflowGraph {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(WorkflowGraph.class);
+
+	/** The type of the dispatch layer that limits the concurrent invocations of a processor. */
+	public static final URI PARALLELIZE_URI = URI.create("http://ns.taverna.org.uk/2010/scufl2/taverna/dispatchlayer/Parallelize");
+
+	/** The activities by name. */
+	private Map<String, ActivityConfig> activities = new LinkedHashMap<String, ActivityConfig>();
+
+	/** The activities that each activity receives data from. */
+	private Map<ActivityConfig, Set<ActivityConfig>> predecessors = new HashMap<ActivityConfig, Set<ActivityConfig>>();
+
+	/** The activities that each activity sends data to. */
+	private Map<ActivityConfig, Set<ActivityConfig>> successors = new HashMap<ActivityConfig, Set<ActivityConfig>>();
+
+	/** The activities that send data to an output port of the workflow. */
+	private Set<ActivityConfig> outputActivities = new HashSet<ActivityConfig>();
+
+	/** The activities in topological order. */
+	private List<ActivityConfig> sortedActivities;
+
+	/**
+	 * Builds the graph of the main workflow of a bundle.
+	 * Only processors that contribute to an output port of the workflow are part of the graph.
+	 *
+	 * @param workflowBundle the workflow bundle
+	 * @throws UnsupportedWorkflowException if the workflow cannot be converted
+	 */
+	public WorkflowGraph(WorkflowBundle workflowBundle) throws UnsupportedWorkflowException {
+		logger.info("Converting workflow to graph of hadoop jobs.");
+		Workflow workflow = workflowBundle.getMainWorkflow();
+		Scufl2Tools scufl2tools = new Scufl2Tools();
+
+		// One pass over all data links
+		Map<SenderPort, List<DataLink>> linksFrom = new IdentityHashMap<SenderPort, List<DataLink>>();
+		Map<ReceiverPort, List<DataLink>> linksTo = new IdentityHashMap<ReceiverPort, List<DataLink>>();
+		for(DataLink dataLink : workflow.getDataLinks()) {
+			addLink(linksFrom, dataLink.getReceivesFrom(), dataLink);
+			addLink(linksTo, dataLink.getSendsTo(), dataLink);
+		}
+
+		// Nodes
+		Map<Processor, ActivityConfig> activityByProcessor = new IdentityHashMap<Processor, ActivityConfig>();
+		for(Processor processor : workflow.getProcessors()) {
+			Configuration configuration = scufl2tools.configurationForActivityBoundToProcessor(processor, workflowBundle.getMainProfile());
+			ActivityConfig activityConfig = createActivityConfig(processor, configuration, linksFrom, linksTo);
+			activityConfig.setMaxParallelism(getMaxJobs(processor, workflowBundle.getMainProfile(), scufl2tools));
+
+			activityByProcessor.put(processor, activityConfig);
+			activities.put(activityConfig.getName(), activityConfig);
+			predecessors.put(activityConfig, new LinkedHashSet<ActivityConfig>());
+			successors.put(activityConfig, new LinkedHashSet<ActivityConfig>());
+		}
+
+		// Edges
+		for(DataLink dataLink : workflow.getDataLinks()) {
+			if(dataLink.getReceivesFrom() instanceof OutputProcessorPort && dataLink.getSendsTo() instanceof InputProcessorPort) {
+				ActivityConfig from = activityByProcessor.get(((OutputProcessorPort) dataLink.getReceivesFrom()).getParent());
+				ActivityConfig to = activityByProcessor.get(((InputProcessorPort) dataLink.getSendsTo()).getParent());
+
+				successors.get(from).add(to);
+				predecessors.get(to).add(from);
+			}
+		}
+
+		// Only keep what leads to a workflow output
+		Set<ActivityConfig> required = new LinkedHashSet<ActivityConfig>();
+		Deque<ActivityConfig> queue = new ArrayDeque<ActivityConfig>();
+		for(OutputWorkflowPort workflowOutPort : workflow.getOutputPorts()) {
+			List<DataLink> dataLinks = linksTo.get(workflowOutPort);
+			if(dataLinks == null)
+				continue;
+
+			for(DataLink dataLink : dataLinks) {
+				if(dataLink.getReceivesFrom() instanceof OutputProcessorPort) {
+					ActivityConfig activityConfig = activityByProcessor.get(((OutputProcessorPort) dataLink.getReceivesFrom()).getParent());
+					outputActivities.add(activityConfig);
+					if(required.add(activityConfig))
+						queue.add(activityConfig);
+				}
+			}
+		}
+		while(!queue.isEmpty()) {
+			for(ActivityConfig predecessor : predecessors.get(queue.poll())) {
+				if(required.add(predecessor))
+					queue.add(predecessor);
+			}
+		}
+		if(required.size() < activities.size()) {
+			for(ActivityConfig activityConfig : new ArrayList<ActivityConfig>(activities.values())) {
+				if(!required.contains(activityConfig)) {
+					logger.debug("Ignoring activity that does not lead to a workflow output: " + activityConfig);
+					remove(activityConfig);
+				}
+			}
+		}
+
+		sortedActivities = Collections.unmodifiableList(sortTopologically());
+		computeKeyDepths(activityByProcessor, linksTo);
+		logger.info("Graph from workflow: " + sortedActivities);
+	}
+
+	/**
+	 * Adds a data link to the list of links of a port.
+	 *
+	 * @param links the links by port
+	 * @param port the port
+	 * @param dataLink the data link
+	 */
+	private static <T> void addLink(Map<T, List<DataLink>> links, T port, DataLink dataLink) {
+		List<DataLink> portLinks = links.get(port);
+		if(portLinks == null) {
+			portLinks = new ArrayList<DataLink>(1);
+			links.put(port, portLinks);
+		}
+		portLinks.add(dataLink);
+	}
+
+	/**
+	 * Instantiates the {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig} of a processor and adds its ports.
+	 *
+	 * @param processor the processor
+	 * @param configuration the configuration of the activity bound to the processor
+	 * @param linksFrom the data links by sending port
+	 * @param linksTo the data links by receiving port
+	 * @return the activity config
+	 * @throws UnsupportedWorkflowException if there is no activity config for the activity
+	 */
+	private static ActivityConfig createActivityConfig(Processor processor, Configuration configuration,
+			Map<SenderPort, List<DataLink>> linksFrom, Map<ReceiverPort, List<DataLink>> linksTo) throws UnsupportedWorkflowException {
+		logger.debug("Activity configuration found: "+ configuration.getName() + " - " + configuration.getConfigurableType());
+		String[] activityParams = configuration.getConfigurableType().getPath().split("/");
+
+		// Find classname for configuration
+		String className = activityParams[activityParams.length - 1];
+		// First letter uppercase
+		className = className.substring(0, 1).toUpperCase() + className.substring(1);
+		// Append "Config"
+		className += "Config";
+
+		ActivityConfig activityConfig;
+		try {
+			logger.debug("Instanciating class: " + className);
+
+			// Load class from name
+			Class<?> classForName = Class.forName(Config.getActivityConfigsPackage() + className);
+			Constructor<?> constructor = classForName.getConstructor(String.class);
+			activityConfig = (ActivityConfig) constructor.newInstance(configuration.getName());
+		} catch (Exception e) {
+			logger.error("Could not instanciate class " + className + ".", e);
+			throw new UnsupportedWorkflowException("Unsupported activity: " + configuration.getConfigurableType());
+		}
+
+		// Add all ports
+		List<String> outputPorts = new ArrayList<String>(processor.getOutputPorts().size());
+		Map<String, String> inputPorts = new LinkedHashMap<String, String>(processor.getInputPorts().size());
+
+		for(OutputProcessorPort outputProcessorPort : processor.getOutputPorts()) {
+			outputPorts.add(outputProcessorPort.getName());
+			activityConfig.setOutputDepth(outputProcessorPort.getName(), getDepth(outputProcessorPort.getDepth()));
+
+			// Get mapping from output ports to input ports of next processors
+			List<DataLink> dataLinksToNext = linksFrom.get(outputProcessorPort);
+			if(dataLinksToNext == null)
+				continue;
+
+			for(DataLink dataLinkToNext : dataLinksToNext) {
+				String outname = "";
+				if(dataLinkToNext.getSendsTo() instanceof InputProcessorPort) {
+					InputProcessorPort inPort = (InputProcessorPort) dataLinkToNext.getSendsTo();
+					outname = inPort.getParent().getName() + dataLinkToNext.getSendsTo().getName();
+				} else if(dataLinkToNext.getSendsTo() instanceof OutputWorkflowPort) {
+					outname = dataLinkToNext.getSendsTo().getName();
+				} else {
+					throw new UnsupportedWorkflowException("Unknown port type.");
+				}
+
+				activityConfig.addToPortMap(outputProcessorPort.getName(), outname);
+			}
+		}
+		for(InputProcessorPort inputProcessorPort : processor.getInputPorts()) {
+			List<DataLink> dataLinksFromPrevious = linksTo.get(inputProcessorPort);
+			if(dataLinksFromPrevious == null)
+				continue;
+
+			int depth = getDepth(inputProcessorPort.getDepth());
+			if(depth > 1)
+				throw new UnsupportedWorkflowException("Input port " + inputProcessorPort.getName() + " of " + processor.getName() + " expects nested lists.");
+			activityConfig.setInputDepth(inputProcessorPort.getName(), depth);
+
+			for(DataLink dataLinkFromPrevious : dataLinksFromPrevious) {
+				String outname = "";
+				if(dataLinkFromPrevious.getReceivesFrom() instanceof OutputProcessorPort) {
+					OutputProcessorPort outPort = (OutputProcessorPort) dataLinkFromPrevious.getReceivesFrom();
+					outname = outPort.getParent().getName();
+				} else if(dataLinkFromPrevious.getReceivesFrom() instanceof InputWorkflowPort) {
+					// Keep empty String
+				} else {
+					throw new UnsupportedWorkflowException("Unknown port type.");
+				}
+				inputPorts.put(inputProcessorPort.getName(), outname);
+			}
+		}
+
+		activityConfig.setInputPorts(inputPorts);
+		activityConfig.setOutputPorts(outputPorts);
+		activityConfig.setCrossProduct(isCrossProduct(processor));
+
+		// Transfer data from Taverna, after the ports are known
+		activityConfig.fetchActivitySpecificDataFromTavernaConfig(configuration);
+
+		return activityConfig;
+	}
+
+	/**
+	 * Gets how a processor iterates over its input ports.
+	 * Only a single cross or dot product over ports is supported, no strategy means a cross product.
+	 *
+	 * @param processor the processor
+	 * @return whether the input ports are iterated as cross product or as dot product
+	 * @throws UnsupportedWorkflowException if the iteration strategy is nested
+	 */
+	private static boolean isCrossProduct(Processor processor) throws UnsupportedWorkflowException {
+		IterationStrategyStack iterationStrategyStack = processor.getIterationStrategyStack();
+		if(iterationStrategyStack == null || iterationStrategyStack.isEmpty())
+			return true;
+
+		if(iterationStrategyStack.size() > 1)
+			throw new UnsupportedWorkflowException("Stacked iteration strategies of " + processor.getName() + " are not supported.");
+
+		IterationStrategyTopNode topNode = iterationStrategyStack.get(0);
+		for(IterationStrategyNode node : topNode) {
+			if(!(node instanceof PortNode))
+				throw new UnsupportedWorkflowException("Nested iteration strategy of " + processor.getName() + " is not supported.");
+		}
+
+		return topNode instanceof CrossProduct;
+	}
+
+	/**
+	 * Gets how many invocations of a processor Taverna would run at the same time, as set in its parallelize layer.
+	 * Every processor has such a layer, usually with the default of a single invocation.
+	 * As the default says nothing about the activity, only larger numbers are taken as limit.
+	 *
+	 * @param processor the processor
+	 * @param profile the profile with the configurations of the layers
+	 * @param scufl2tools the tools to find the configurations with
+	 * @return the maximum number of concurrent invocations, 0 if not limited
+	 */
+	private static int getMaxJobs(Processor processor, Profile profile, Scufl2Tools scufl2tools) {
+		if(processor.getDispatchStack() == null)
+			return 0;
+
+		for(DispatchStackLayer layer : processor.getDispatchStack()) {
+			if(!PARALLELIZE_URI.equals(layer.getConfigurableType()))
+				continue;
+
+			Configuration configuration = scufl2tools.configurationFor(layer, profile);
+			if(configuration == null)
+				return 0;
+
+			try {
+				int maxJobs = Integer.parseInt(configuration.getPropertyResource().getPropertyAsString(PARALLELIZE_URI.resolve("#maxJobs")).trim());
+				return maxJobs > 1 ? maxJobs : 0;
+			} catch (PropertyException e) {
+				logger.debug("No maximum number of jobs for " + processor.getName());
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid maximum number of jobs for " + processor.getName(), e);
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @param depth a depth from the workflow, may be <code>null</code>
+	 * @return the depth, 0 if unknown
+	 */
+	private static int getDepth(Integer depth) {
+		return depth == null ? 0 : depth;
+	}
+
+	/**
+	 * Derives the number of list indices in the keys each input port receives, in topological order.
+	 * Inputs of the workflow that are lists are given as one record per element, just like lists between activities.
+	 *
+	 * @param activityByProcessor the activities by processor
+	 * @param linksTo the data links by receiving port
+	 * @throws UnsupportedWorkflowException if a port receives less than the list depth it expects
+	 * or the ports of a dot product have different iteration depths
+	 */
+	private void computeKeyDepths(Map<Processor, ActivityConfig> activityByProcessor, Map<ReceiverPort, List<DataLink>> linksTo) throws UnsupportedWorkflowException {
+		Map<ActivityConfig, Processor> processorByActivity = new HashMap<ActivityConfig, Processor>();
+		for(Map.Entry<Processor, ActivityConfig> entry : activityByProcessor.entrySet()) {
+			processorByActivity.put(entry.getValue(), entry.getKey());
+		}
+
+		for(ActivityConfig activityConfig : sortedActivities) {
+			int iterationDepth = -1;
+			for(InputProcessorPort inputProcessorPort : processorByActivity.get(activityConfig).getInputPorts()) {
+				List<DataLink> dataLinksFromPrevious = linksTo.get(inputProcessorPort);
+				if(dataLinksFromPrevious == null)
+					continue;
+
+				String inputPort = inputProcessorPort.getName();
+				int keyDepth = 0;
+				for(DataLink dataLinkFromPrevious : dataLinksFromPrevious) {
+					if(dataLinkFromPrevious.getReceivesFrom() instanceof OutputProcessorPort) {
+						OutputProcessorPort outPort = (OutputProcessorPort) dataLinkFromPrevious.getReceivesFrom();
+						keyDepth = activityByProcessor.get(outPort.getParent()).getOutputKeyDepth(outPort.getName());
+					} else if(dataLinkFromPrevious.getReceivesFrom() instanceof InputWorkflowPort) {
+						keyDepth = getDepth(((InputWorkflowPort) dataLinkFromPrevious.getReceivesFrom()).getDepth());
+					}
+				}
+
+				if(keyDepth < activityConfig.getInputDepth(inputPort))
+					throw new UnsupportedWorkflowException("Input port " + inputPort + " of " + activityConfig + " expects lists of depth "
+							+ activityConfig.getInputDepth(inputPort) + ", but receives depth " + keyDepth + ".");
+				activityConfig.setInputKeyDepth(inputPort, keyDepth);
+
+				int portIterationDepth = keyDepth - activityConfig.getInputDepth(inputPort);
+				if(!activityConfig.isCrossProduct() && iterationDepth >= 0 && portIterationDepth != iterationDepth)
+					throw new UnsupportedWorkflowException("The dot product of " + activityConfig + " iterates over ports with different list depths.");
+				iterationDepth = portIterationDepth;
+			}
+
+			if(activityConfig.getIterationDepth() > 0)
+				logger.debug(activityConfig + " iterates over " + activityConfig.getIterationDepth() + " list levels as "
+						+ (activityConfig.isCrossProduct() ? "cross product." : "dot product."));
+		}
+	}
+
+	/**
+	 * Removes an activity and all its edges.
+	 *
+	 * @param activityConfig the activity
+	 */
+	private void remove(ActivityConfig activityConfig) {
+		for(ActivityConfig predecessor : predecessors.remove(activityConfig)) {
+			successors.get(predecessor).remove(activityConfig);
+		}
+		for(ActivityConfig successor : successors.remove(activityConfig)) {
+			predecessors.get(successor).remove(activityConfig);
+		}
+		activities.remove(activityConfig.getName());
+	}
+
+	/**
+	 * Sorts the activities topologically (Kahn's algorithm).
+	 * Activities without dependencies between each other keep the order of the workflow.
+	 *
+	 * @return the activities in topological order
+	 * @throws UnsupportedWorkflowException if the workflow contains a cycle
+	 */
+	private List<ActivityConfig> sortTopologically() throws UnsupportedWorkflowException {
+		List<ActivityConfig> result = new ArrayList<ActivityConfig>(activities.size());
+		Map<ActivityConfig, Integer> inDegrees = new HashMap<ActivityConfig, Integer>(activities.size());
+		Deque<ActivityConfig> ready = new ArrayDeque<ActivityConfig>();
+
+		for(ActivityConfig activityConfig : activities.values()) {
+			int inDegree = predecessors.get(activityConfig).size();
+			inDegrees.put(activityConfig, inDegree);
+			if(inDegree == 0)
+				ready.add(activityConfig);
+		}
+
+		while(!ready.isEmpty()) {
+			ActivityConfig activityConfig = ready.poll();
+			result.add(activityConfig);
+
+			for(ActivityConfig successor : successors.get(activityConfig)) {
+				int inDegree = inDegrees.get(successor) - 1;
+				inDegrees.put(successor, inDegree);
+				if(inDegree == 0)
+					ready.add(successor);
+			}
+		}
+
+		if(result.size() < activities.size())
+			throw new UnsupportedWorkflowException("The workflow contains a cycle.");
+
+		return result;
+	}
+
+	/**
+	 * @return the activities in topological order
+	 */
+	public List<ActivityConfig> getActivities() {
+		return sortedActivities;
+	}
+
+	/**
+	 * @param name the name of the activity
+	 * @return the activity or <code>null</code> if there is none
+	 */
+	public ActivityConfig getActivity(String name) {
+		return activities.get(name);
+	}
+
+	/**
+	 * @param activityConfig the activity
+	 * @return the activities the given activity receives data from
+	 */
+	public Set<ActivityConfig> getPredecessors(ActivityConfig activityConfig) {
+		return Collections.unmodifiableSet(predecessors.get(activityConfig));
+	}
+
+	/**
+	 * @param activityConfig the activity
+	 * @return the activities the given activity sends data to
+	 */
+	public Set<ActivityConfig> getSuccessors(ActivityConfig activityConfig) {
+		return Collections.unmodifiableSet(successors.get(activityConfig));
+	}
+
+	/**
+	 * @param activityConfig the activity
+	 * @return whether or not the activity sends data to an output port of the workflow
+	 */
+	public boolean isOutputActivity(ActivityConfig activityConfig) {
+		return outputActivities.contains(activityConfig);
+	}
+
+	/**
+	 * @param activityConfig the activity
+	 * @return whether or not the activity receives data from an input port of the workflow
+	 */
+	public boolean isInputActivity(ActivityConfig activityConfig) {
+		return activityConfig.getInputPorts().containsValue("");
+	}
+
+	@Override
+	public String toString() {
+		return sortedActivities.toString();
+	}
+}
@@ -2,33 +2,20 @@ package de.tuberlin.schenck.taverna_to_hadoop.convert;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import uk.org.taverna.scufl2.api.common.NamedSet;
-import uk.org.taverna.scufl2.api.common.Scufl2Tools;
-import uk.org.taverna.scufl2.api.configurations.Configuration;
 import uk.org.taverna.scufl2.api.container.WorkflowBundle;
-import uk.org.taverna.scufl2.api.core.DataLink;
-import uk.org.taverna.scufl2.api.core.Processor;
 import uk.org.taverna.scufl2.api.io.ReaderException;
 import uk.org.taverna.scufl2.api.io.WorkflowBundleIO;
-import uk.org.taverna.scufl2.api.port.InputProcessorPort;
-import uk.org.taverna.scufl2.api.port.InputWorkflowPort;
-import uk.org.taverna.scufl2.api.port.OutputProcessorPort;
-import uk.org.taverna.scufl2.api.port.OutputWorkflowPort;
-import uk.org.taverna.scufl2.api.port.ReceiverPort;
-import uk.org.taverna.scufl2.api.port.SenderPort;
 import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellChainConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateRenderer;
 import de.tuberlin.schenck.taverna_to_hadoop.exceptions.UnsupportedWorkflowException;
 import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
 
@@ -36,11 +23,17 @@ public class WorkflowManager {
 	/** The logger for this class. */
 	private static Logger logger = Logger.getLogger(WorkflowManager.class);
 
+	/** The reader for workflow bundles, shared by all conversions. */
+	private static final WorkflowBundleIO io = new WorkflowBundleIO();
+
 	/** The workflow bundle read from disk. */
 	private WorkflowBundle workflowBundle;
 
-	/** The activity list created from the workflow for the MapReduce class. */
-	List<ActivityConfig> activityList;
+	/** The graph of activities created from the workflow for the MapReduce class. */
+	private WorkflowGraph graph;
+
+	/** The activities that run as one job each, in topological order. Linear chains are combined into a single job. */
+	private List<ActivityConfig> jobList;
 
 	/**
 	 * Create a manager and read the workflow from disk.
@@ -49,19 +42,54 @@ public class WorkflowManager {
 	 * @throws UnsupportedWorkflowException unsupported workflows
 	 */
 	public WorkflowManager(String input) throws UnsupportedWorkflowException {
-		readWorkflow(input);
+		this(readWorkflow(input));
+	}
+
+	/**
+	 * Create a manager for a workflow that has already been read.
+	 * 
+	 * @param workflowBundle the workflow bundle
+	 * @throws UnsupportedWorkflowException unsupported workflows
+	 */
+	public WorkflowManager(WorkflowBundle workflowBundle) throws UnsupportedWorkflowException {
+		this.workflowBundle = workflowBundle;
+		graph = new WorkflowGraph(workflowBundle);
+		jobList = fuseLinearChains();
+		logger.info("Jobs from workflow: " + jobList);
+	}
+
+	/**
+	 * Gets the reader for workflow bundles that is shared by all conversions.
+	 * 
+	 * @return the reader
+	 */
+	public static WorkflowBundleIO getWorkflowBundleIO() {
+		return io;
 	}
 
 	/**
 	 * Reads a Taverna workflow from disk.
 	 * Format can be either t2flow or scufl2.
+	 * If the streaming reader is enabled, <code>.t2flow</code> files are streamed by the {@link T2FlowReader} if possible.
+	 * Everything else is read by scufl2.
 	 * 
 	 * @param input the reference to the workflow file
+	 * @return the workflow bundle
 	 * @throws UnsupportedWorkflowException unsupported workflows
 	 */
-	private void readWorkflow(String input) throws UnsupportedWorkflowException {
-		WorkflowBundleIO io = new WorkflowBundleIO();
+	public static WorkflowBundle readWorkflow(String input) throws UnsupportedWorkflowException {
 		File file = new File(input);
+		WorkflowBundle workflowBundle = null;
+		
+		if(Config.isStreamingReader() && file.getName().endsWith(".t2flow")) {
+			logger.debug("Streaming workflow: " + file);
+			workflowBundle = new T2FlowReader().read(file);
+			if(workflowBundle != null)
+				return workflowBundle;
+			
+			logger.info("Reading " + input + " with scufl2");
+		}
+		
 		try {
 			logger.debug("Reading workflow: " + file);
 			// mediaType = null  --> guess
@@ -71,202 +99,118 @@ public class WorkflowManager {
 		} catch (IOException e) {
 			logger.error("Could not read " + input, e);
 		}
+		
+		if(workflowBundle == null)
+			throw new UnsupportedWorkflowException("Could not read " + input);
 
-		activityList = createListFromWorkflow();
-		logger.info("List from workflow: " + activityList);
+		return workflowBundle;
 	}
 
 	/**
-	 * Converts the workflow to a linear list of MapReduce {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig}.
-	 * Starts at output port and recursively goes backwards until input port is reached.
-	 * Then reverses the order.
+	 * Combines linear chains of beanshell activities into single jobs.
+	 * An activity is combined with the next one, if it sends data only to that activity
+	 * and the next activity receives data from nobody else.
+	 * Lists are not passed within a job, so the activity must not produce lists and the next one must evaluate its script once per key.
+	 * 
+	 * @return the jobs in topological order
 	 */
-	private List<ActivityConfig> createListFromWorkflow() {
-		logger.info("Converting workflow to list of hadoop jobs.");
-		List<ActivityConfig> result = new ArrayList<ActivityConfig>();
+	private List<ActivityConfig> fuseLinearChains() {
+		List<ActivityConfig> result = new ArrayList<ActivityConfig>(graph.getActivities().size());
+		Set<ActivityConfig> fused = new HashSet<ActivityConfig>();
 
-		Scufl2Tools scufl2tools = new Scufl2Tools();
-		NamedSet<OutputWorkflowPort> workflowOutputPorts = workflowBundle.getMainWorkflow().getOutputPorts();
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			if(fused.contains(activityConfig))
+				continue;
 
-		logger.debug("Nr. of workflow output ports: " + workflowOutputPorts.size());
+			List<BeanshellConfig> chain = new ArrayList<BeanshellConfig>();
+			ActivityConfig current = activityConfig;
+			while(current instanceof BeanshellConfig) {
+				chain.add((BeanshellConfig) current);
 
-		// Get all activities which are linked to the output ports
-		// Go through all ports, get all feeding activities
-		for(OutputWorkflowPort workflowOutPort : workflowOutputPorts) {
-			getPreviousProcessors(result, scufl2tools, workflowOutPort);
+				ActivityConfig next = getFusableSuccessor(current);
+				if(next == null)
+					break;
+
+				fused.add(next);
+				current = next;
+			}
+
+			if(chain.size() > 1) {
+				logger.debug("Combining into one job: " + chain);
+				result.add(new BeanshellChainConfig(chain));
+			} else {
+				result.add(activityConfig);
+			}
 		}
 
-		// Reverse, because we went through the workflow backwards
-		Collections.reverse(result);
 		return result;
 	}
 
 	/**
-	 * Get all previous processors connected to the given {@link uk.org.taverna.scufl2.api.port.ReceiverPort} by a {@link uk.org.taverna.scufl2.api.core.DataLink}.
-	 * Adds all processors to the end of the list of {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig}s.
-	 * If it is already in the list, it deletes it and appends it.
+	 * Gets the activity that can run in the same job right after the given one.
 	 * 
-	 * @param result the final list of all {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig}s.
-	 * @param scufl2tools {@link uk.org.taverna.scufl2.api.common.Scufl2Tools} from the scufl 2 API
-	 * @param receiverPort the receiving port
+	 * @param activityConfig the activity
+	 * @return the next activity or <code>null</code> if there is none
 	 */
-	private void getPreviousProcessors(List<ActivityConfig> result,
-			Scufl2Tools scufl2tools, ReceiverPort receiverPort) {
-		// Remember which one to go through next
-		Set<ReceiverPort> nextReceiverPorts = new HashSet<ReceiverPort>();
+	private ActivityConfig getFusableSuccessor(ActivityConfig activityConfig) {
+		if(graph.getSuccessors(activityConfig).size() != 1 || graph.isOutputActivity(activityConfig))
+			return null;
 
-		// Go through all links
-		for(DataLink dataLink : scufl2tools.datalinksTo(receiverPort)) {
-			SenderPort senderPort = dataLink.getReceivesFrom();
-			// No processor if input port of workflow
-			if(senderPort instanceof InputWorkflowPort)
-				continue;
+		ActivityConfig next = graph.getSuccessors(activityConfig).iterator().next();
+		if(!(next instanceof BeanshellConfig) || graph.getPredecessors(next).size() != 1 || graph.isInputActivity(next))
+			return null;
 
-			OutputProcessorPort processorOutPort = (OutputProcessorPort) senderPort;
-			Processor processor = processorOutPort.getParent();
-			Configuration configuration = scufl2tools.configurationForActivityBoundToProcessor(processor, workflowBundle.getMainProfile());
+		if(activityConfig.producesLists() || !((BeanshellConfig) next).isElementwise())
+			return null;
 
-			logger.debug("Activity configuration found: "+ configuration.getName() + " - " + configuration.getConfigurableType());
-			String[] activityParams = configuration.getConfigurableType().getPath().split("/");
-
-			// Find classname for configuration
-			String className = activityParams[activityParams.length - 1];
-			// First letter uppercase
-			className = className.substring(0, 1).toUpperCase() + className.substring(1);
-			// Append "Config"
-			className += "Config";
-
-			ActivityConfig activityConfig = null;
-			try {
-				logger.debug("Instanciating class: " + className);
-
-				// Load class from name
-				Class<?> classForName = Class.forName(Config.getActivityConfigsPackage() + className);
-				Constructor<?> constructor = classForName.getConstructor(String.class);
-				activityConfig = (ActivityConfig) constructor.newInstance(configuration.getName());
-
-				// Transfer data from Taverna
-				activityConfig.fetchActivitySpecificDataFromTavernaConfig(configuration);
-
-				// Add all ports
-				List<String> outputPorts = new ArrayList<String>(processor.getOutputPorts().size());
-				Map<String, String> inputPorts = new HashMap<String, String>(processor.getInputPorts().size());
-
-				for(OutputProcessorPort outputProcessorPort : processor.getOutputPorts()) {
-					outputPorts.add(outputProcessorPort.getName());
-					
-					// Get mapping from input ports to output ports of previous processors
-					for(DataLink dataLinkToNext : scufl2tools.datalinksFrom(outputProcessorPort)) {
-						String outname = "";
-						if(dataLinkToNext.getSendsTo() instanceof InputProcessorPort) {
-							InputProcessorPort inPort = (InputProcessorPort) dataLinkToNext.getSendsTo();
-							outname = inPort.getParent().getName() + dataLinkToNext.getSendsTo().getName();
-						} else if(dataLinkToNext.getSendsTo() instanceof OutputWorkflowPort) {
-							outname = dataLinkToNext.getSendsTo().getName();
-						} else {
-							throw new UnsupportedWorkflowException("Unknown port type.");
-						}
-						
-						activityConfig.addToPortMap(outputProcessorPort.getName(), outname);
-					}
-				}
-				for(InputProcessorPort inputProcessorPort : processor.getInputPorts()) {
-					for(DataLink dataLinkFromPrevious : scufl2tools.datalinksTo(inputProcessorPort)) {
-						String outname = "";
-						if(dataLinkFromPrevious.getReceivesFrom() instanceof OutputProcessorPort) {
-							OutputProcessorPort outPort = (OutputProcessorPort) dataLinkFromPrevious.getReceivesFrom();
-							outname = outPort.getParent().getName();
-						} else if(dataLinkFromPrevious.getReceivesFrom() instanceof InputWorkflowPort) {
-							// Keep empty String
-						} else {
-							throw new UnsupportedWorkflowException("Unknown port type.");
-						}
-						inputPorts.put(inputProcessorPort.getName(), outname);
-					}
-				}
-
-				activityConfig.setInputPorts(inputPorts);
-				activityConfig.setOutputPorts(outputPorts);
-			} catch (InstantiationException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (IllegalAccessException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (ClassNotFoundException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (NoSuchMethodException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (SecurityException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (IllegalArgumentException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (InvocationTargetException e) {
-				logger.error("Unsupported workflow.", new UnsupportedWorkflowException());
-				logger.error("Could not instanciate class " + className + ".", e);
-			} catch (UnsupportedWorkflowException e) {
-				logger.error("Could not translate workflow.", e);
-			}
-
-			List<ActivityConfig> copyOfResult = new ArrayList<ActivityConfig>(result.size());
-			copyOfResult.addAll(result);
-			// If it is already in the list, remove and append
-			for(int i = 0; i < copyOfResult.size(); i++) {
-				if(copyOfResult.get(i).equals(activityConfig)) {
-					result.remove(i);
-				}
-			}
-			result.add(activityConfig);
-
-			nextReceiverPorts.addAll(processor.getInputPorts());
-		}
+		return next;
+	}
 
-		// Next step in the workflow to reach all
-		for(ReceiverPort nextReceiverPort : nextReceiverPorts) {
-			getPreviousProcessors(result, scufl2tools, nextReceiverPort);
-		}
+	/**
+	 * @return the graph of activities created from the workflow
+	 */
+	public WorkflowGraph getGraph() {
+		return graph;
 	}
 
 	/**
-	 * Get the String for the template for all map and reduce classes from the workflow.
+	 * Renders the templates for all map and reduce classes from the workflow.
 	 *  
-	 * @return the java source code for all map and reduce classes
+	 * @param renderer the renderer to write the java source code into
+	 * @param profile the profile of the conversion, gets a phase per activity
 	 */
-	public String getMapReduceClasses() {
-		StringBuilder resultBuilder = new StringBuilder();
-
-		for(ActivityConfig activityConfig : activityList) {
-			resultBuilder.append(activityConfig.getMapReduce());
-			resultBuilder.append("\n");
+	public void renderMapReduceClasses(TemplateRenderer renderer, ConversionProfile profile) {
+		for(ActivityConfig activityConfig : jobList) {
+			profile.start(activityConfig.getName());
+			activityConfig.renderMapReduce(renderer);
+			renderer.append("\n");
+			profile.stop();
 		}
-
-		String result = resultBuilder.toString();
-		logger.debug("Map and reduce classes: " + result);
-		return result;
 	}
 
 	/**
-	 * Get the String for the template for all run methods from the workflow.
+	 * Renders the templates for all run methods from the workflow.
 	 *  
-	 * @return the java source code for all the run methods
+	 * @param renderer the renderer to write the java source code into
+	 * @param profile the profile of the conversion, gets a phase per activity
 	 */
-	public String getRuns() {
-		StringBuilder resultBuilder = new StringBuilder();
-
+	public void renderRuns(TemplateRenderer renderer, ConversionProfile profile) {
 		String inputPath = "";
 		String intermediatePath;
-		for(ActivityConfig activityConfig : activityList) {
+		for(ActivityConfig activityConfig : jobList) {
+			profile.start(activityConfig.getName());
 			// TODO what if input from args
 			StringBuilder pathBuilder = new StringBuilder();
 			pathBuilder.append("pathPrefix + \"");
 			for(String inputPort : activityConfig.getInputPorts().keySet()) {
-				pathBuilder.append(activityConfig.getInputPorts().get(inputPort));
-				pathBuilder.append("out/");
-				pathBuilder.append(activityConfig.getName());
+				String origin = activityConfig.getInputPorts().get(inputPort);
+				pathBuilder.append(origin);
+				// The outputs of activities are written into the folder of the current cycle in incremental runs
+				if(origin.length() > 0)
+					pathBuilder.append("out\" + cycle + \"/");
+				else
+					pathBuilder.append("out/");
+				pathBuilder.append(activityConfig.getInputName());
 				pathBuilder.append(inputPort);
 				pathBuilder.append("*,\" + pathPrefix + \"");
 			}
@@ -276,7 +220,7 @@ public class WorkflowManager {
 			pathBuilder.append("\"");
 			inputPath = pathBuilder.toString();
 			
-			intermediatePath = "pathPrefix + \"" + activityConfig.getName() + "out\"";
+			intermediatePath = "pathPrefix + \"" + activityConfig.getName() + "out\" + cycle";
 
 			activityConfig.setInputPath(inputPath);
 			activityConfig.setOutputPath(intermediatePath);
@@ -284,10 +228,9 @@ public class WorkflowManager {
 			activityConfig.setInputFormat("KeyValueTextInputFormat");
 			activityConfig.setOutputFormat("TextOutputFormat");
 
-			resultBuilder.append(activityConfig.getRun());
-			resultBuilder.append("\n");
+			activityConfig.renderRun(renderer);
+			renderer.append("\n");
+			profile.stop();
 		}
-
-		return resultBuilder.toString();
 	}
 }
@@ -1,12 +1,15 @@
 package de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import uk.org.taverna.scufl2.api.configurations.Configuration;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateContext;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateRenderer;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateSegment;
 
 /**
  * Configurations interface for Taverna activities.
@@ -14,7 +17,7 @@ import uk.org.taverna.scufl2.api.configurations.Configuration;
  * @author schenck
  *
  */
-public abstract class ActivityConfig {
+public abstract class ActivityConfig implements TemplateContext {
 	/** The name of the configuration. */
 	private String name;
 	
@@ -49,17 +52,21 @@ public abstract class ActivityConfig {
 	private Map<String, String> outputToNextInput;
 	
 	
-	/** The pattern for general placeholders. */
-	protected final Pattern placeholderPattern = Pattern.compile("<%(.*?)%>");
-
-	/** The matcher for general placeholders. */
-	protected Matcher placeholderMatcher;
-
-	/** The pattern for placeholders in quotes. */
-	protected Pattern inQuotesPattern = Pattern.compile("\"(.*?)\"");
-
-	/** The matcher for placeholders in quotes. */
-	protected Matcher inQuotesMatcher;
+	/** The depth of the lists each input port expects, 0 for single values. */
+	private Map<String, Integer> inputDepths = new HashMap<String, Integer>();
+	
+	/** The depth of the lists each output port produces, 0 for single values. */
+	private Map<String, Integer> outputDepths = new HashMap<String, Integer>();
+	
+	/** The number of list indices in the keys of the records each input port receives. */
+	private Map<String, Integer> inputKeyDepths = new HashMap<String, Integer>();
+	
+	/** Whether the input ports are iterated as cross product or as dot product. */
+	private boolean crossProduct = true;
+	
+	/** The maximum number of concurrent invocations the workflow allows for the activity, 0 if not limited. */
+	private int maxParallelism = 0;
+	
 	
 	/**
 	 * Constructs an {@link de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig}.
@@ -79,17 +86,102 @@ public abstract class ActivityConfig {
 	}
 	
 	/**
-	 * The java MapReduce source code for the Hadoop class for this activity.
-	 * @return the java source code
+	 * The name the inputs of this activity are written under by the previous activities.
+	 * Same as the name, unless several activities are combined into one job.
+	 * 
+	 * @return the name of the inputs
+	 */
+	public String getInputName() {
+		return name;
+	}
+	
+	/**
+	 * The templates for the java MapReduce source code for the Hadoop class for this activity.
+	 * 
+	 * @return the names of the templates
+	 */
+	public abstract List<String> getMapReduceTemplates();
+	
+	/**
+	 * The templates for the java run method source code for the Hadoop class for this activity.
+	 * 
+	 * @return the names of the templates
+	 */
+	public abstract List<String> getRunTemplates();
+	
+	/**
+	 * Renders the java MapReduce source code for the Hadoop class for this activity.
+	 * 
+	 * @param renderer the renderer to write the java source code into
+	 */
+	public void renderMapReduce(TemplateRenderer renderer) {
+		renderTemplates(getMapReduceTemplates(), renderer);
+	}
+	
+	/**
+	 * Renders the java run method source code for the Hadoop class for this activity.
+	 * 
+	 * @param renderer the renderer to write the java source code into
 	 */
-	public abstract String getMapReduce();
+	public void renderRun(TemplateRenderer renderer) {
+		renderTemplates(getRunTemplates(), renderer);
+	}
 	
 	/**
-	 * The java run method source code for the Hadoop class for this activity.
+	 * Renders all given templates one after another with this activity as context.
 	 * 
-	 * @return the java source code
+	 * @param templateNames the names of the templates
+	 * @param renderer the renderer to write the java source code into
 	 */
-	public abstract String getRun();
+	private void renderTemplates(List<String> templateNames, TemplateRenderer renderer) {
+		for(String templateName : templateNames) {
+			renderer.render(TemplateCache.getTemplate(templateName), this);
+			renderer.append("\n");
+		}
+	}
+	
+	/**
+	 * Gets the value of a variable that is common to all activities.
+	 * Activities with specific variables override this.
+	 */
+	@Override
+	public String getVariable(String variable) {
+		if(variable.equals("configName")) {
+			return getName();
+		} else if(variable.equals("inputName")) {
+			return getInputName();
+		} else if(variable.equals("inputPortNames")) {
+			return getInputPortNames();
+		} else if(variable.equals("inputPortCount")) {
+			return String.valueOf(inputPorts.size());
+		} else if(variable.equals("inputListDepths")) {
+			return getInputListDepths();
+		} else if(variable.equals("crossProduct")) {
+			return String.valueOf(crossProduct);
+		} else if(variable.equals("inputFormat")) {
+			return getInputFormat();
+		} else if(variable.equals("outputFormat")) {
+			return getOutputFormat();
+		} else if(variable.equals("inputPath")) {
+			return getInputPath();
+		} else if(variable.equals("outputPath")) {
+			return getOutputPath();
+		} else if(variable.equals("multipleOutputsWrite")) {
+			return getMultipleOutputsWrite();
+		} else if(variable.equals("multipleOutputsRun")) {
+			return getMultipleOutputsRun();
+		} else if(variable.equals("dependingJobs")) {
+			return getDependingJobs();
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public boolean include(TemplateSegment segment, TemplateRenderer renderer) {
+		// Activities do not include anything themselves
+		return false;
+	}
 	
 	/**
 	 * Lets this activity config get the individually required data from the Taverna configuration.
@@ -98,18 +190,37 @@ public abstract class ActivityConfig {
 	 */
 	public abstract void fetchActivitySpecificDataFromTavernaConfig(Configuration configuration);
 
+	/**
+	 * Writes the values of all output ports to the named outputs of the following activities.
+	 * The templates have to provide the values in port order in <code>Object[] outputValues</code>.
+	 * Lists are written as one record per element.
+	 * 
+	 * @return the java source code writing the outputs
+	 */
 	public String getMultipleOutputsWrite() {
 		StringBuilder resultBuilder = new StringBuilder();
 		
-		for(String outputPort : outputPorts) {
-			resultBuilder.append("newValue.set(interpreter.get(\"");
-			resultBuilder.append(outputPort);			
-			resultBuilder.append("\").toString());\n");
-			resultBuilder.append("\t\t\t\t");
-			resultBuilder.append("mos.write(\"");
-			resultBuilder.append(outputToNextInput.get(outputPort));
+		for(int i = 0; i < outputPorts.size(); i++) {
+			if(getOutputDepth(outputPorts.get(i)) > 0) {
+				resultBuilder.append("ListKeys.write(outputs, \"");
+				resultBuilder.append(outputToNextInput.get(outputPorts.get(i)));
+				resultBuilder.append("\", key.toString(), outputValues[");
+				resultBuilder.append(i);
+				resultBuilder.append("], ");
+				resultBuilder.append(getOutputDepth(outputPorts.get(i)));
+				resultBuilder.append(");\n");
+				resultBuilder.append("\t\t\t");
+				continue;
+			}
+			
+			resultBuilder.append("newValue.set(outputValues[");
+			resultBuilder.append(i);			
+			resultBuilder.append("].toString());\n");
+			resultBuilder.append("\t\t\t");
+			resultBuilder.append("outputs.write(\"");
+			resultBuilder.append(outputToNextInput.get(outputPorts.get(i)));
 			resultBuilder.append("\", key, newValue);\n");
-			resultBuilder.append("\t\t\t\t");
+			resultBuilder.append("\t\t\t");
 		}
 		
 		return resultBuilder.toString();
@@ -134,6 +245,105 @@ public abstract class ActivityConfig {
 		return resultBuilder.toString();
 	}
 	
+	/**
+	 * The names of the input ports as java string literals, separated by commas.
+	 * The index of a port in this list is its id.
+	 * 
+	 * @return the names of the input ports
+	 */
+	public String getInputPortNames() {
+		StringBuilder resultBuilder = new StringBuilder();
+		
+		for(String inputPort : inputPorts.keySet()) {
+			if(resultBuilder.length() > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append("\"");
+			resultBuilder.append(inputPort);
+			resultBuilder.append("\"");
+		}
+		
+		return resultBuilder.toString();
+	}
+	
+	/**
+	 * The depths of the lists the input ports expect, in port order, separated by commas.
+	 * 
+	 * @return the depths of the input ports
+	 */
+	public String getInputListDepths() {
+		StringBuilder resultBuilder = new StringBuilder();
+		
+		for(String inputPort : inputPorts.keySet()) {
+			if(resultBuilder.length() > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append(getInputDepth(inputPort));
+		}
+		
+		return resultBuilder.toString();
+	}
+	
+	/**
+	 * The number of list levels this activity iterates over.
+	 * Every input port iterates over the levels its records have beyond the depth it expects.
+	 * A dot product iterates over these levels of all ports at once, a cross product over the levels of one port after another.
+	 * 
+	 * @return the number of list indices the keys of the results of a single evaluation have
+	 */
+	public int getIterationDepth() {
+		int result = 0;
+		
+		for(String inputPort : inputPorts.keySet()) {
+			int portIterationDepth = getInputKeyDepth(inputPort) - getInputDepth(inputPort);
+			if(crossProduct)
+				result += portIterationDepth;
+			else
+				result = Math.max(result, portIterationDepth);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @param outputPort the output port
+	 * @return the number of list indices in the keys of the records written by the output port
+	 */
+	public int getOutputKeyDepth(String outputPort) {
+		return getIterationDepth() + getOutputDepth(outputPort);
+	}
+	
+	/**
+	 * @return whether or not any output port produces lists
+	 */
+	public boolean producesLists() {
+		for(String outputPort : outputPorts) {
+			if(getOutputDepth(outputPort) > 0)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * The jobs of the activities this activity receives data from, each preceded by a comma.
+	 * Used as the varargs of <code>JobScheduler.addJob</code> in the generated driver.
+	 * 
+	 * @return the jobs that need to succeed before this activity can run
+	 */
+	public String getDependingJobs() {
+		StringBuilder resultBuilder = new StringBuilder();
+		
+		for(String originatingActivity : new LinkedHashSet<String>(inputPorts.values())) {
+			// Empty if input port of workflow
+			if(originatingActivity.length() == 0)
+				continue;
+			
+			resultBuilder.append(", jobConf");
+			resultBuilder.append(originatingActivity);
+		}
+		
+		return resultBuilder.toString();
+	}
+	
 	@Override
 	public String toString() {
 		return name;
@@ -150,6 +360,11 @@ public abstract class ActivityConfig {
 		return false;
 	}
 
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
 	/**
 	 * @return the inputPath
 	 */
@@ -263,6 +478,85 @@ public abstract class ActivityConfig {
 		return outputToNextInput;
 	}
 
+	/**
+	 * @param inputPort the input port
+	 * @return the depth of the lists the input port expects
+	 */
+	public int getInputDepth(String inputPort) {
+		Integer depth = inputDepths.get(inputPort);
+		return depth == null ? 0 : depth;
+	}
+
+	/**
+	 * @param inputPort the input port
+	 * @param depth the depth of the lists the input port expects
+	 */
+	public void setInputDepth(String inputPort, int depth) {
+		inputDepths.put(inputPort, depth);
+	}
+
+	/**
+	 * @param outputPort the output port
+	 * @return the depth of the lists the output port produces
+	 */
+	public int getOutputDepth(String outputPort) {
+		Integer depth = outputDepths.get(outputPort);
+		return depth == null ? 0 : depth;
+	}
+
+	/**
+	 * @param outputPort the output port
+	 * @param depth the depth of the lists the output port produces
+	 */
+	public void setOutputDepth(String outputPort, int depth) {
+		outputDepths.put(outputPort, depth);
+	}
+
+	/**
+	 * @param inputPort the input port
+	 * @return the number of list indices in the keys of the records the input port receives
+	 */
+	public int getInputKeyDepth(String inputPort) {
+		Integer depth = inputKeyDepths.get(inputPort);
+		return depth == null ? 0 : depth;
+	}
+
+	/**
+	 * @param inputPort the input port
+	 * @param depth the number of list indices in the keys of the records the input port receives
+	 */
+	public void setInputKeyDepth(String inputPort, int depth) {
+		inputKeyDepths.put(inputPort, depth);
+	}
+
+	/**
+	 * @return whether the input ports are iterated as cross product or as dot product
+	 */
+	public boolean isCrossProduct() {
+		return crossProduct;
+	}
+
+	/**
+	 * @param crossProduct whether the input ports are iterated as cross product or as dot product
+	 */
+	public void setCrossProduct(boolean crossProduct) {
+		this.crossProduct = crossProduct;
+	}
+
+	/**
+	 * @return the maximum number of concurrent invocations the workflow allows for the activity, 0 if not limited
+	 */
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+
+	/**
+	 * @param maxParallelism the maximum number of concurrent invocations the workflow allows for the activity, 0 if not limited
+	 */
+	public void setMaxParallelism(int maxParallelism) {
+		this.maxParallelism = maxParallelism;
+	}
+
 	/**
 	 * @return the outputKeyClass
 	 */
@@ -0,0 +1,74 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs;
+
+import java.util.List;
+import java.util.Map;
+
+import uk.org.taverna.scufl2.api.configurations.Configuration;
+
+/**
+ * A linear chain of beanshell activities that runs as a single job.
+ * Every activity of the chain but the last feeds only the next one, which in turn receives data from nobody else.
+ * The activities in between pass single values, so every following script is evaluated once per evaluation of the first one.
+ * The scripts are evaluated back to back within one task, so the results in between are never written to disk.
+ * <p>
+ * The chain is named after its last activity, so that following activities find its output.
+ * Its input is named after the first activity.
+ *
+ * @author schenck
+ *
+ */
+public class BeanshellChainConfig extends BeanshellConfig {
+	/** The activities of the chain, in order. */
+	private List<BeanshellConfig> chain;
+
+	/**
+	 * Constructs the chain.
+	 *
+	 * @param chain the activities of the chain, in order
+	 */
+	public BeanshellChainConfig(List<BeanshellConfig> chain) {
+		super(chain.get(chain.size() - 1).getName());
+		this.chain = chain;
+
+		BeanshellConfig first = chain.get(0);
+		BeanshellConfig last = chain.get(chain.size() - 1);
+		setInputPorts(first.getInputPorts());
+		setOutputPorts(last.getOutputPorts());
+		setCrossProduct(first.isCrossProduct());
+		for(String inputPort : first.getInputPorts().keySet()) {
+			setInputDepth(inputPort, first.getInputDepth(inputPort));
+			setInputKeyDepth(inputPort, first.getInputKeyDepth(inputPort));
+		}
+		for(String outputPort : last.getOutputPorts()) {
+			setOutputDepth(outputPort, last.getOutputDepth(outputPort));
+		}
+		for(Map.Entry<String, String> portMapping : last.getOutputToNextInput().entrySet()) {
+			addToPortMap(portMapping.getKey(), portMapping.getValue());
+		}
+		// The job runs every script of the chain, so the strictest limit applies
+		for(BeanshellConfig activity : chain) {
+			if(activity.getMaxParallelism() > 0 && (getMaxParallelism() == 0 || activity.getMaxParallelism() < getMaxParallelism()))
+				setMaxParallelism(activity.getMaxParallelism());
+		}
+	}
+
+	@Override
+	public void fetchActivitySpecificDataFromTavernaConfig(Configuration configuration) {
+		// All data comes from the activities of the chain
+	}
+
+	@Override
+	public List<BeanshellConfig> getScriptChain() {
+		return chain;
+	}
+
+	@Override
+	public String getInputName() {
+		return chain.get(0).getName();
+	}
+
+	@Override
+	public String toString() {
+		return chain.toString();
+	}
+}
@@ -1,112 +1,357 @@
 package de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import uk.org.taverna.scufl2.api.configurations.Configuration;
 import uk.org.taverna.scufl2.api.property.PropertyException;
 import uk.org.taverna.scufl2.translator.t2flow.defaultactivities.BeanshellActivityParser;
-import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
-import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateRenderer;
 
 public class BeanshellConfig extends ActivityConfig {
 	/** The logger for this class. */
 	private static Logger logger = Logger.getLogger(BeanshellConfig.class);
-	
+
 	/** The <code>beanshell</code> script. */
 	private String script;
-	
+
+	/** The type of the output ports if the script is translated into java, <code>null</code> if it is interpreted. */
+	private String javaOutputType;
+
 	public BeanshellConfig(String name) {
 		super(name);
 	}
 
+	/**
+	 * Gets the script and tries to translate it into java.
+	 * Needs the ports to be set.
+	 */
 	@Override
 	public void fetchActivitySpecificDataFromTavernaConfig(Configuration configuration) {
 		script = "";
 		try {
+			// Quotes and linebreaks are escaped when the script is rendered
 			script = configuration.getPropertyResource().getPropertyAsString(BeanshellActivityParser.ACTIVITY_URI.resolve("#script"));
-			// Quotes
-			script = script.replaceAll("\"", "\\\"");
-			// Linebreaks
-			script = script.replaceAll("\\s", " ");
 		} catch (PropertyException e) {
 			logger.error("Could not get script for beanshell.", e);
 		}
+
+		javaOutputType = null;
+		if(BeanshellTranslator.parses(script))
+			javaOutputType = BeanshellTranslator.getJavaOutputType(script, new ArrayList<String>(getInputPorts().keySet()), getInputTypes(), getOutputPorts());
+
+		if(javaOutputType != null)
+			logger.info("Translated script of " + getName() + " into java.");
+		else
+			logger.info("Script of " + getName() + " is interpreted.");
+	}
+
+	/**
+	 * The java types of the input ports when the script is translated, <code>List&lt;String&gt;</code> for ports that expect lists.
+	 *
+	 * @return the types in port order
+	 */
+	private List<String> getInputTypes() {
+		List<String> inputTypes = new ArrayList<String>(getInputPorts().size());
+		for(String inputPort : getInputPorts().keySet()) {
+			inputTypes.add(getInputDepth(inputPort) > 0 ? "List<String>" : "String");
+		}
+
+		return inputTypes;
+	}
+
+	/**
+	 * Activities with a single input port do not need to group their inputs by key.
+	 * They evaluate the script in the mapper and their job runs without reducers.
+	 *
+	 * @return whether or not the job of this activity is map only
+	 */
+	public boolean isMapOnly() {
+		return getInputPorts().size() == 1 && isElementwise();
+	}
+
+	/**
+	 * Activities whose ports expect single values and that either iterate a dot product or do not iterate at all
+	 * evaluate the script once per key, for the values of all ports with exactly that key.
+	 * All other activities need all values with the same key prefix to re-assemble lists or to build a cross product.
+	 *
+	 * @return whether or not the script is evaluated once per key
+	 */
+	public boolean isElementwise() {
+		for(String inputPort : getInputPorts().keySet()) {
+			if(getInputDepth(inputPort) > 0)
+				return false;
+		}
+
+		return getInputPorts().size() == 1 || !isCrossProduct() || getIterationDepth() == 0;
+	}
+
+	/**
+	 * The number of list indices the mapper moves from the keys of an input port into the list index.
+	 * The remaining key is the key the values are grouped by:
+	 * the key of the list for ports that expect lists and the same key for all ports of a dot product,
+	 * or the key before any iteration for cross products.
+	 *
+	 * @param inputPort the input port
+	 * @return the number of indices
+	 */
+	public int getIndexLevels(String inputPort) {
+		if(isElementwise())
+			return 0;
+		else if(isCrossProduct() && getInputPorts().size() > 1)
+			return getInputKeyDepth(inputPort);
+		else
+			return getInputDepth(inputPort);
+	}
+
+	/**
+	 * @return the numbers of list indices moved into the list index in port order, separated by commas
+	 * @see #getIndexLevels(String)
+	 */
+	private String getInputIndexLevels() {
+		StringBuilder resultBuilder = new StringBuilder();
+
+		for(String inputPort : getInputPorts().keySet()) {
+			if(resultBuilder.length() > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append(getIndexLevels(inputPort));
+		}
+
+		return resultBuilder.toString();
+	}
+
+	/**
+	 * The activities whose scripts are evaluated one after another by the job of this activity.
+	 *
+	 * @return only this activity, unless activities are combined
+	 */
+	public List<BeanshellConfig> getScriptChain() {
+		return Collections.singletonList(this);
 	}
 
 	@Override
-	public String getMapReduce() {
+	public List<String> getMapReduceTemplates() {
 		List<String> templates = new ArrayList<String>(2);
-		templates.add("multiple-inputs-map.jtemp");
-		templates.add("beanshell-activity-reduce.jtemp");
-		
-		return removePlaceholdersFromTemplate(templates);
+		if(isMapOnly()) {
+			templates.add("beanshell-activity-map.jtemp");
+		} else if(isElementwise()) {
+			templates.add("multiple-inputs-map.jtemp");
+			templates.add("beanshell-activity-reduce.jtemp");
+		} else {
+			templates.add("multiple-inputs-map.jtemp");
+			templates.add("beanshell-activity-iterate.jtemp");
+		}
+
+		return templates;
 	}
 
 	@Override
-	public String getRun() {
+	public List<String> getRunTemplates() {
 		List<String> templates = new ArrayList<String>(1);
 		templates.add("beanshell-activity-run.jtemp");
-		
-		return removePlaceholdersFromTemplate(templates);
+
+		return templates;
+	}
+
+	@Override
+	public String getVariable(String variable) {
+		if(variable.equals("script")) {
+			return TemplateRenderer.toJavaStringLiteral(script);
+		} else if(variable.equals("scripts")) {
+			return getScripts();
+		} else if(variable.equals("setupScripts")) {
+			return getSetupScripts();
+		} else if(variable.equals("evaluateScripts")) {
+			return getEvaluateScripts();
+		} else if(variable.equals("inputPort")) {
+			return "\"" + getInputPorts().keySet().iterator().next() + "\"";
+		} else if(variable.equals("inputIndexLevels")) {
+			return getInputIndexLevels();
+		} else if(variable.equals("mapperClass")) {
+			return getName() + (isMapOnly() ? "BeanshellMap" : "MultipleInputsMap");
+		} else if(variable.equals("reducerSetup")) {
+			if(isMapOnly())
+				return "jobConf" + getName() + ".setNumReduceTasks(0);";
+			// The number of reducers is chosen when the job is submitted, limited by the workflow
+			String maxReducers = "";
+			if(getMaxParallelism() > 0)
+				maxReducers = "\t\tjobConf" + getName() + ".getConfiguration().setInt(ReducerCount.MAX_REDUCERS, " + getMaxParallelism() + ");\n";
+			return "jobConf" + getName() + ".setReducerClass(" + getName() + (isElementwise() ? "BeanshellReduce" : "IterationReduce") + ".class);\n"
+					+ maxReducers
+					+ "\t\tjobConf" + getName() + ".setMapOutputKeyClass(TaggedKey.class);\n"
+					+ "\t\tjobConf" + getName() + ".setMapOutputValueClass(Text.class);\n"
+					+ "\t\tjobConf" + getName() + ".setSortComparatorClass(TaggedKey.Comparator.class);\n"
+					+ "\t\tjobConf" + getName() + ".setGroupingComparatorClass(TaggedKey.GroupingComparator.class);\n"
+					+ "\t\tjobConf" + getName() + ".setPartitionerClass(TaggedKey.KeyPartitioner.class);";
+		} else if(variable.equals("outputPort")) {
+			return "\"" + getOutputPorts() + "\"";
+		}
+
+		return super.getVariable(variable);
+	}
+
+	/**
+	 * The scripts of the chain as java methods, or as definitions of beanshell methods if they are interpreted.
+	 *
+	 * @return the members of the map or reduce class holding the scripts
+	 */
+	private String getScripts() {
+		StringBuilder resultBuilder = new StringBuilder();
+		boolean interpreted = false;
+
+		List<BeanshellConfig> chain = getScriptChain();
+		for(int i = 0; i < chain.size(); i++) {
+			BeanshellConfig activityConfig = chain.get(i);
+			List<String> inputPorts = new ArrayList<String>(activityConfig.getInputPorts().keySet());
+
+			if(activityConfig.isTranslated()) {
+				resultBuilder.append(BeanshellTranslator.createJavaMethod("script" + i, activityConfig.getScript(), inputPorts, activityConfig.getInputTypes(), activityConfig.getOutputPorts(), activityConfig.javaOutputType));
+				resultBuilder.append("\n\n");
+			} else {
+				resultBuilder.append("private static final String scriptSource");
+				resultBuilder.append(i);
+				resultBuilder.append(" = ");
+				resultBuilder.append(BeanshellTranslator.wrap("script" + i, activityConfig.getScript(), inputPorts));
+				resultBuilder.append(";\n");
+				interpreted = true;
+			}
+			resultBuilder.append("\t\t");
+		}
+
+		if(interpreted)
+			resultBuilder.append("private Interpreter interpreter = new Interpreter();");
+
+		return resultBuilder.toString();
 	}
 
 	/**
-	 * Reads all given templates, concatenates them and processes their activity specific placeholders.
-	 * 
-	 * @param templateNames a list of all templates that shall be read and processed
-	 * @return the template with the activity specific placeholders replaced
+	 * Lets the interpreter parse the definitions of the interpreted scripts once per task.
+	 *
+	 * @return the java source code for the setup of the map or reduce class
 	 */
-	private String removePlaceholdersFromTemplate(List<String> templateNames) {
-		logger.debug("Replacing placeholders in: " + templateNames);
-		// Read the templates
+	private String getSetupScripts() {
 		StringBuilder resultBuilder = new StringBuilder();
-		
-		for(String templateName : templateNames) {
-			resultBuilder.append(FileUtils.readFileIntoString(Config.getPathToTemplates() + templateName));
-			resultBuilder.append("\n");
+
+		List<BeanshellConfig> chain = getScriptChain();
+		for(int i = 0; i < chain.size(); i++) {
+			if(chain.get(i).isTranslated())
+				continue;
+
+			resultBuilder.append("\t\t\t\tinterpreter.eval(scriptSource");
+			resultBuilder.append(i);
+			resultBuilder.append(");\n");
 		}
-		
-		String result = resultBuilder.toString();
-		// Replace variables
-		placeholderMatcher = placeholderPattern.matcher(result);
-
-		String placeholder;
-		String placeholderStripped;
-		while(placeholderMatcher.find()) {
-			placeholder = placeholderMatcher.group(0);
-			logger.debug("Found placeholder that contains: " + placeholder);
-			
-			// Remove all white spaces to make parsing easier
-			placeholderStripped = placeholder.replaceAll("\\s", "");
-			
-			if(placeholderStripped.equals("<%=configName%>")) {
-				result = result.replace(placeholder, getName());
-			} else if(placeholderStripped.equals("<%=script%>")) {
-				result = result.replace(placeholder, "\"" + script + "\"");
-			} else if(placeholderStripped.equals("<%=inputPort%>")) {
-				result = result.replace(placeholder, "\"" + getInputPorts().get(0) + "\"");
-			} else if(placeholderStripped.equals("<%=outputPort%>")) {
-				result = result.replace(placeholder, "\"" + getOutputPorts() + "\"");
-			} else if(placeholderStripped.equals("<%=inputFormat%>")) {
-				result = result.replace(placeholder, getInputFormat());
-			} else if(placeholderStripped.equals("<%=outputFormat%>")) {
-				result = result.replace(placeholder, getOutputFormat());
-			} else if(placeholderStripped.equals("<%=inputPath%>")) {
-				result = result.replace(placeholder, getInputPath());
-			} else if(placeholderStripped.equals("<%=outputPath%>")) {
-				result = result.replace(placeholder, getOutputPath());
-			} else if(placeholderStripped.equals("<%=multipleOutputsWrite%>")) {
-				result = result.replace(placeholder, getMultipleOutputsWrite());
-			} else if(placeholderStripped.equals("<%=multipleOutputsRun%>")) {
-				result = result.replace(placeholder, getMultipleOutputsRun());
+
+		if(resultBuilder.length() == 0)
+			return "";
+
+		return "try {\n"
+				+ resultBuilder.toString()
+				+ "\t\t\t} catch (EvalError e) {\n"
+				+ "\t\t\t\tthrow new IOException(\"Could not parse beanshell: \" + e.getMessage());\n"
+				+ "\t\t\t}";
+	}
+
+	/**
+	 * Evaluates the scripts of the chain one after another and puts the values of the output ports of the last one into <code>outputValues</code>.
+	 * The inputs of the first script are taken from the record in map only jobs and from <code>inputValues</code> in port order otherwise,
+	 * which holds <code>String</code>s or, if the script is iterated, <code>Object</code>s that are single values or lists.
+	 * The inputs of every following script are the outputs of the previous one.
+	 *
+	 * @return the java source code evaluating the scripts
+	 */
+	private String getEvaluateScripts() {
+		StringBuilder resultBuilder = new StringBuilder();
+
+		List<BeanshellConfig> chain = getScriptChain();
+		for(int i = 0; i < chain.size(); i++) {
+			BeanshellConfig activityConfig = chain.get(i);
+
+			// Arguments
+			List<String> arguments = new ArrayList<String>(activityConfig.getInputPorts().size());
+			for(String inputPort : activityConfig.getInputPorts().keySet()) {
+				if(i > 0) {
+					arguments.add(getPreviousOutput(chain.get(i - 1), i - 1, activityConfig.getName() + inputPort));
+				} else if(isMapOnly()) {
+					arguments.add("value.toString()");
+				} else if(isElementwise()) {
+					arguments.add("inputValues[" + arguments.size() + "]");
+				} else {
+					arguments.add("(" + (getInputDepth(inputPort) > 0 ? "List<String>" : "String") + ") inputValues[" + arguments.size() + "]");
+				}
+			}
+
+			if(activityConfig.isTranslated()) {
+				resultBuilder.append("Object[] values");
+				resultBuilder.append(i);
+				resultBuilder.append(" = script");
+				resultBuilder.append(i);
+				resultBuilder.append("(");
+				appendList(resultBuilder, arguments);
+				resultBuilder.append(");\n");
+			} else {
+				resultBuilder.append("This scope");
+				resultBuilder.append(i);
+				resultBuilder.append(" = (This) interpreter.getNameSpace().invokeMethod(\"script");
+				resultBuilder.append(i);
+				resultBuilder.append("\", new Object[] { ");
+				appendList(resultBuilder, arguments);
+				resultBuilder.append(" }, interpreter);\n");
+
+				List<String> outputs = new ArrayList<String>(activityConfig.getOutputPorts().size());
+				for(String outputPort : activityConfig.getOutputPorts()) {
+					outputs.add("Primitive.unwrap(scope" + i + ".getNameSpace().getVariable(\"" + outputPort + "\"))");
+				}
+				resultBuilder.append("\t\t\t\tObject[] values");
+				resultBuilder.append(i);
+				resultBuilder.append(" = new Object[] { ");
+				appendList(resultBuilder, outputs);
+				resultBuilder.append(" };\n");
 			}
+			resultBuilder.append("\t\t\t\t");
+		}
+
+		resultBuilder.append("outputValues = values");
+		resultBuilder.append(chain.size() - 1);
+		resultBuilder.append(";");
+
+		return resultBuilder.toString();
+	}
+
+	/**
+	 * Gets the output of the previous script of a chain that is sent to an input port.
+	 *
+	 * @param previous the previous activity
+	 * @param index the index of the previous activity in the chain
+	 * @param nextInput the name of the next activity followed by the input port
+	 * @return the java expression for the value
+	 */
+	private static String getPreviousOutput(BeanshellConfig previous, int index, String nextInput) {
+		for(Map.Entry<String, String> portMapping : previous.getOutputToNextInput().entrySet()) {
+			if(portMapping.getValue().equals(nextInput))
+				return "values" + index + "[" + previous.getOutputPorts().indexOf(portMapping.getKey()) + "].toString()";
+		}
+
+		logger.warn("No output of " + previous + " for " + nextInput);
+		return "null";
+	}
+
+	/**
+	 * Appends a comma separated list.
+	 *
+	 * @param builder the builder to append to
+	 * @param elements the elements of the list
+	 */
+	private static void appendList(StringBuilder builder, List<String> elements) {
+		for(int i = 0; i < elements.size(); i++) {
+			if(i > 0)
+				builder.append(", ");
+			builder.append(elements.get(i));
 		}
-		
-		logger.debug("Beanshell template: " + result);
-		return result;
 	}
 
 	public String getScript() {
@@ -116,4 +361,11 @@ public class BeanshellConfig extends ActivityConfig {
 	public void setScript(String script) {
 		this.script = script;
 	}
+
+	/**
+	 * @return whether or not the script is translated into java
+	 */
+	public boolean isTranslated() {
+		return javaOutputType != null;
+	}
 }
@@ -0,0 +1,304 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.apache.log4j.Logger;
+
+import bsh.ParseException;
+import bsh.Parser;
+import bsh.TokenMgrError;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.Template;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateRenderer;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateSegment;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Translates beanshell scripts into java methods at conversion time.
+ * <p>
+ * A script is translated if it is valid java once its ports are declared: input ports become <code>String</code> or <code>List&lt;String&gt;</code> parameters,
+ * output ports become local variables that are returned in port order.
+ * This is checked by compiling the method within a class that sees the same names as the generated class:
+ * the imports of the templates and the classes nested into the generated class, which hide imported classes of the same name.
+ * All other scripts are wrapped into a beanshell method, which is parsed once per task instead of once per record.
+ *
+ * @author schenck
+ *
+ */
+public class BeanshellTranslator {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(BeanshellTranslator.class);
+
+	/** The packages imported by default by beanshell, which are imported by the generated class as well. */
+	public static final String[] IMPORTS = { "java.io.*", "java.net.*", "java.util.*" };
+
+	/** The types tried for the output ports, in order. */
+	private static final String[] OUTPUT_TYPES = { "String", "Object" };
+
+	/** The results of previous checks by ports and script, an empty <code>String</code> if the script cannot be translated. */
+	private static final ConcurrentMap<String, String> outputTypes = new ConcurrentHashMap<String, String>();
+
+	/** The name of the class used to check whether a translated script compiles. */
+	private static final String CHECK_CLASS_NAME = "BeanshellTranslationCheck";
+
+	/** The template of the generated class, which includes the templates of all jobs. */
+	private static final String WRAPPER_TEMPLATE = "hadoop-wrapper.jtemp";
+
+	/** The templates of beanshell activities, whose imports end up in the generated class with the script. */
+	private static final String[] ACTIVITY_TEMPLATES = { "beanshell-activity-map.jtemp", "beanshell-activity-reduce.jtemp", "beanshell-activity-iterate.jtemp", "multiple-inputs-map.jtemp", "beanshell-activity-run.jtemp" };
+
+	/** Import statements within the literal text of templates. */
+	private static final Pattern IMPORT = Pattern.compile("^import\\s+([\\w.]+(?:\\.\\*)?)\\s*;", Pattern.MULTILINE);
+
+	/** Classes nested directly into the generated class, indented by one tab. */
+	private static final Pattern MEMBER_CLASS = Pattern.compile("^\\tpublic\\s+static\\s+(?:abstract\\s+)?(?:class|interface)\\s+(\\w+)\\b", Pattern.MULTILINE);
+
+	/**
+	 * Checks whether beanshell can parse a script.
+	 *
+	 * @param script the script
+	 * @return whether or not the script is syntactically correct
+	 */
+	public static boolean parses(String script) {
+		Parser parser = new Parser(new StringReader(script));
+		try {
+			while(!parser.Line()) {
+				// Parse the whole script
+			}
+			return true;
+		} catch (ParseException e) {
+			logger.warn("Could not parse beanshell script: " + e.getMessage());
+		} catch (TokenMgrError e) {
+			logger.warn("Could not parse beanshell script: " + e.getMessage());
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds out whether a script can be translated into a java method and which type its output ports need.
+	 *
+	 * @param script the script
+	 * @param inputPorts the input ports, in parameter order
+	 * @param inputTypes the types of the input ports, in parameter order
+	 * @param outputPorts the output ports, in return order
+	 * @return the type of the output ports or <code>null</code> if the script cannot be translated
+	 */
+	public static String getJavaOutputType(String script, List<String> inputPorts, List<String> inputTypes, List<String> outputPorts) {
+		// The names seen by the script change with the templates
+		String checkClassHeader = createCheckClassHeader();
+		String key = checkClassHeader + "\n" + inputPorts + "\n" + inputTypes + "\n" + outputPorts + "\n" + script;
+		String cachedOutputType = outputTypes.get(key);
+		if(cachedOutputType != null)
+			return cachedOutputType.length() > 0 ? cachedOutputType : null;
+
+		String result = "";
+		for(String outputType : OUTPUT_TYPES) {
+			if(compiles(checkClassHeader, createJavaMethod("script", script, inputPorts, inputTypes, outputPorts, outputType))) {
+				result = outputType;
+				break;
+			}
+		}
+		outputTypes.putIfAbsent(key, result);
+
+		return result.length() > 0 ? result : null;
+	}
+
+	/**
+	 * Creates a java method from a script.
+	 * The method takes the input ports as parameters and returns the values of the output ports as <code>Object[]</code>.
+	 *
+	 * @param methodName the name of the method
+	 * @param script the script
+	 * @param inputPorts the input ports, in parameter order
+	 * @param inputTypes the types of the input ports, in parameter order
+	 * @param outputPorts the output ports, in return order
+	 * @param outputType the type of the output ports
+	 * @return the java method
+	 */
+	public static String createJavaMethod(String methodName, String script, List<String> inputPorts, List<String> inputTypes, List<String> outputPorts, String outputType) {
+		StringBuilder resultBuilder = new StringBuilder();
+
+		resultBuilder.append("private static Object[] ");
+		resultBuilder.append(methodName);
+		resultBuilder.append("(");
+		for(int i = 0; i < inputPorts.size(); i++) {
+			if(i > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append(inputTypes.get(i));
+			resultBuilder.append(" ");
+			resultBuilder.append(inputPorts.get(i));
+		}
+		resultBuilder.append(") throws Exception {\n");
+
+		for(String outputPort : outputPorts) {
+			resultBuilder.append("\t\t\t");
+			resultBuilder.append(outputType);
+			resultBuilder.append(" ");
+			resultBuilder.append(outputPort);
+			resultBuilder.append(" = null;\n");
+		}
+
+		resultBuilder.append("\t\t\t");
+		resultBuilder.append(script.trim().replace("\n", "\n\t\t\t"));
+		resultBuilder.append("\n");
+
+		resultBuilder.append("\t\t\treturn new Object[] { ");
+		for(int i = 0; i < outputPorts.size(); i++) {
+			if(i > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append(outputPorts.get(i));
+		}
+		resultBuilder.append(" };\n");
+		resultBuilder.append("\t\t}");
+
+		return resultBuilder.toString();
+	}
+
+	/**
+	 * Wraps a script into a beanshell method, that returns its own scope.
+	 *
+	 * @param methodName the name of the method
+	 * @param script the script
+	 * @param inputPorts the input ports, in parameter order
+	 * @return the definition of the beanshell method as java string literal
+	 * @see #wrapScript(String, String, List)
+	 */
+	public static String wrap(String methodName, String script, List<String> inputPorts) {
+		return TemplateRenderer.toJavaStringLiteral(wrapScript(methodName, script, inputPorts));
+	}
+
+	/**
+	 * Wraps a script into a beanshell method, that returns its own scope.
+	 * The values of the output ports can then be read from the namespace of the returned object.
+	 *
+	 * @param methodName the name of the method
+	 * @param script the script
+	 * @param inputPorts the input ports, in parameter order
+	 * @return the definition of the beanshell method
+	 */
+	public static String wrapScript(String methodName, String script, List<String> inputPorts) {
+		StringBuilder resultBuilder = new StringBuilder();
+
+		resultBuilder.append(methodName);
+		resultBuilder.append("(");
+		for(int i = 0; i < inputPorts.size(); i++) {
+			if(i > 0)
+				resultBuilder.append(", ");
+			resultBuilder.append(inputPorts.get(i));
+		}
+		resultBuilder.append(") {\n");
+		resultBuilder.append(script);
+		resultBuilder.append("\nreturn this;\n}");
+
+		return resultBuilder.toString();
+	}
+
+	/**
+	 * Creates the beginning of the class used to check whether a translated script compiles.
+	 * It has the imports of the generated class and of the templates of beanshell activities,
+	 * and empty classes named like the classes nested into the generated class, which hide imported classes of the same name.
+	 * The script is checked within a nested class, as it is generated.
+	 *
+	 * @return the java source code up to the opening of the nested class
+	 */
+	private static String createCheckClassHeader() {
+		Set<String> imports = new TreeSet<String>();
+		for(String singleImport : IMPORTS) {
+			imports.add(singleImport);
+		}
+		Set<String> memberClasses = new TreeSet<String>();
+		collectNames(TemplateCache.getTemplate(WRAPPER_TEMPLATE), imports, memberClasses);
+		for(String templateName : ACTIVITY_TEMPLATES) {
+			collectNames(TemplateCache.getTemplate(templateName), imports, memberClasses);
+		}
+
+		StringBuilder sourceBuilder = new StringBuilder();
+		for(String singleImport : imports) {
+			sourceBuilder.append("import ");
+			sourceBuilder.append(singleImport);
+			sourceBuilder.append(";\n");
+		}
+		sourceBuilder.append("public class ");
+		sourceBuilder.append(CHECK_CLASS_NAME);
+		sourceBuilder.append(" {\n");
+		for(String memberClass : memberClasses) {
+			sourceBuilder.append("\tpublic static class ");
+			sourceBuilder.append(memberClass);
+			sourceBuilder.append(" {}\n");
+		}
+		sourceBuilder.append("\tpublic static class Script {\n\t\t");
+
+		return sourceBuilder.toString();
+	}
+
+	/**
+	 * Collects the imports and the names of the classes nested into the generated class of a template and the templates it includes.
+	 *
+	 * @param template the template
+	 * @param imports the imports to add to
+	 * @param memberClasses the names of the nested classes to add to
+	 */
+	private static void collectNames(Template template, Set<String> imports, Set<String> memberClasses) {
+		for(TemplateSegment segment : template.getSegments()) {
+			switch(segment.getType()) {
+			case REQUIRES_IMPORTS:
+				imports.addAll(segment.getImports());
+				break;
+			case INCLUDE_FILE:
+				collectNames(TemplateCache.getTemplate(segment.getArgument()), imports, memberClasses);
+				break;
+			case LITERAL:
+				Matcher importMatcher = IMPORT.matcher(segment.getSource());
+				while(importMatcher.find()) {
+					imports.add(importMatcher.group(1));
+				}
+				Matcher memberClassMatcher = MEMBER_CLASS.matcher(segment.getSource());
+				while(memberClassMatcher.find()) {
+					memberClasses.add(memberClassMatcher.group(1));
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a method compiles within a class that sees the same names as the generated class.
+	 *
+	 * @param checkClassHeader the beginning of the class
+	 * @param method the method
+	 * @return whether or not the method compiles
+	 * @see #createCheckClassHeader()
+	 */
+	private static boolean compiles(String checkClassHeader, String method) {
+		StringBuilder sourceBuilder = new StringBuilder(checkClassHeader);
+		sourceBuilder.append(method);
+		sourceBuilder.append("\n\t}\n}\n");
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		if(FileUtils.compileInMemory(CHECK_CLASS_NAME, sourceBuilder.toString(), diagnostics) != null)
+			return true;
+
+		if(logger.isDebugEnabled()) {
+			for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				logger.debug("Not translated: " + diagnostic.getMessage(Locale.ENGLISH));
+			}
+		}
+
+		return false;
+	}
+}
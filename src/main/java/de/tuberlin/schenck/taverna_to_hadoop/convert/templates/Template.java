@@ -0,0 +1,97 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A template that was parsed into a list of {@link de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateSegment}s.
+ * Templates are immutable and can be shared between conversions.
+ *
+ * @author schenck
+ *
+ */
+public class Template {
+	/** The opening of a placeholder. */
+	private static final String PLACEHOLDER_OPEN = "<%";
+
+	/** The closing of a placeholder. */
+	private static final String PLACEHOLDER_CLOSE = "%>";
+
+	/** The name of the template. */
+	private final String name;
+
+	/** The unparsed template. */
+	private final String source;
+
+	/** The segments of the template in order. */
+	private final List<TemplateSegment> segments;
+
+	/**
+	 * Parses a template.
+	 *
+	 * @param name the name of the template
+	 * @param source the template as a <code>String</code>
+	 */
+	public Template(String name, String source) {
+		this.name = name;
+		this.source = source;
+		this.segments = Collections.unmodifiableList(parse(source));
+	}
+
+	/**
+	 * Splits the template into literal text and placeholders.
+	 *
+	 * @param source the template as a <code>String</code>
+	 * @return the segments of the template
+	 */
+	private static List<TemplateSegment> parse(String source) {
+		List<TemplateSegment> result = new ArrayList<TemplateSegment>();
+
+		int position = 0;
+		while(position < source.length()) {
+			int open = source.indexOf(PLACEHOLDER_OPEN, position);
+			int close = open == -1 ? -1 : source.indexOf(PLACEHOLDER_CLOSE, open + PLACEHOLDER_OPEN.length());
+
+			// No more (complete) placeholders
+			if(close == -1) {
+				result.add(TemplateSegment.literal(source.substring(position)));
+				break;
+			}
+
+			if(open > position)
+				result.add(TemplateSegment.literal(source.substring(position, open)));
+
+			position = close + PLACEHOLDER_CLOSE.length();
+			result.add(TemplateSegment.placeholder(source.substring(open, position)));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the name of the template
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the unparsed template
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the segments of the template in order
+	 */
+	public List<TemplateSegment> getSegments() {
+		return segments;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
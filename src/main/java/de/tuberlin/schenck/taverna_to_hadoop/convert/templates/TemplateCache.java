@@ -0,0 +1,71 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Loads every template only once and keeps the parsed {@link de.tuberlin.schenck.taverna_to_hadoop.convert.templates.Template}
+ * for all activities and conversions within this JVM.
+ * Templates whose file was modified since they were read are read again, so a long running conversion server picks up edited templates.
+ *
+ * @author schenck
+ *
+ */
+public class TemplateCache {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(TemplateCache.class);
+
+	/** The parsed templates by their path. */
+	private static ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+	/** The modification times of the template files when they were read, by their path. */
+	private static ConcurrentMap<String, Long> modificationTimes = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Gets a template from the current path to templates.
+	 *
+	 * @param templateName the file name of the template
+	 * @return the parsed template
+	 * @see Config#getPathToTemplates()
+	 */
+	public static Template getTemplate(String templateName) {
+		return getTemplate(Config.getPathToTemplates(), templateName);
+	}
+
+	/**
+	 * Gets a template. Reads and parses it, if it has not been read before or its file was modified since.
+	 *
+	 * @param pathToTemplates the path to the templates, including a trailing slash
+	 * @param templateName the file name of the template
+	 * @return the parsed template
+	 */
+	public static Template getTemplate(String pathToTemplates, String templateName) {
+		String path = pathToTemplates + templateName;
+		long modificationTime = new File(path).lastModified();
+
+		Template template = templates.get(path);
+		if(template == null || !Long.valueOf(modificationTime).equals(modificationTimes.get(path))) {
+			logger.debug("Loading template: " + path);
+			template = new Template(templateName, FileUtils.readFileIntoString(path));
+
+			// Threads reading a modified template at the same time all parse it, the last one is kept
+			templates.put(path, template);
+			modificationTimes.put(path, modificationTime);
+		}
+
+		return template;
+	}
+
+	/**
+	 * Removes all templates from the cache, so that they are read from disk again.
+	 */
+	public static void clear() {
+		templates.clear();
+		modificationTimes.clear();
+	}
+}
@@ -0,0 +1,28 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+/**
+ * Provides the values for the placeholders of a template while it is rendered by a
+ * {@link de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateRenderer}.
+ *
+ * @author schenck
+ *
+ */
+public interface TemplateContext {
+	/**
+	 * Gets the value of a variable (<code>&lt;%= variable %&gt;</code>).
+	 *
+	 * @param variable the name of the variable
+	 * @return the value or <code>null</code> if this context does not know the variable
+	 */
+	public String getVariable(String variable);
+
+	/**
+	 * Renders an include placeholder (<code>&lt;%@ include mapreduce %&gt;</code> or <code>&lt;%@ include run %&gt;</code>)
+	 * directly into the given renderer.
+	 *
+	 * @param segment the include placeholder
+	 * @param renderer the renderer to write into
+	 * @return whether or not this context could handle the include
+	 */
+	public boolean include(TemplateSegment segment, TemplateRenderer renderer);
+}
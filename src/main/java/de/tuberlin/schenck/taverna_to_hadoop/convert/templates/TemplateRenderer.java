@@ -0,0 +1,194 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Renders templates into java source code in a single pass.
+ * <p>
+ * All placeholders are resolved from left to right into one output buffer.
+ * Included templates are rendered recursively into the same buffer.
+ * Required imports are collected on the way and put at the position of <code>&lt;%@ imports %&gt;</code>
+ * once rendering is complete, so that imports of included templates are taken into account.
+ *
+ * @author schenck
+ *
+ */
+public class TemplateRenderer {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(TemplateRenderer.class);
+
+	/** The context of the outermost template. Used whenever a nested context does not know a placeholder. */
+	private final TemplateContext rootContext;
+
+	/** The rendered source code. */
+	private final StringBuilder output;
+
+	/** The imports required by all rendered templates, sorted alphabetically. */
+	private final Set<String> imports;
+
+	/** The position in the output where the imports are to be put, -1 if there is none. */
+	private int importsPosition = -1;
+
+	/**
+	 * Constructs a renderer.
+	 *
+	 * @param rootContext the context of the outermost template
+	 */
+	public TemplateRenderer(TemplateContext rootContext) {
+		this.rootContext = rootContext;
+
+		output = new StringBuilder();
+		imports = new TreeSet<String>();
+	}
+
+	/**
+	 * Renders a template with the root context.
+	 *
+	 * @param template the template
+	 */
+	public void render(Template template) {
+		render(template, rootContext);
+	}
+
+	/**
+	 * Renders a template into the output.
+	 *
+	 * @param template the template
+	 * @param context the context providing the values of the placeholders
+	 */
+	public void render(Template template, TemplateContext context) {
+		for(TemplateSegment segment : template.getSegments()) {
+			switch(segment.getType()) {
+			case LITERAL:
+				output.append(segment.getSource());
+				break;
+			case VARIABLE:
+				output.append(getVariable(segment.getArgument(), context));
+				break;
+			case INCLUDE_FILE:
+				if(segment.getArgument().length() > 0) {
+					logger.debug("Including file: " + segment.getArgument());
+					render(TemplateCache.getTemplate(segment.getArgument()), context);
+				} else {
+					logger.warn("Could not find template from: " + segment.getSource());
+				}
+				break;
+			case INCLUDE_MAPREDUCE:
+			case INCLUDE_RUN:
+				if(!context.include(segment, this) && (context == rootContext || !rootContext.include(segment, this)))
+					logger.warn("Could not include: " + segment.getSource());
+				break;
+			case REQUIRES_IMPORTS:
+				if(segment.getImports().isEmpty())
+					logger.warn("Did not find the imports: " + segment.getSource());
+				imports.addAll(segment.getImports());
+				break;
+			case IMPORTS:
+				importsPosition = output.length();
+				break;
+			default:
+				logger.warn("Unknown placeholder in template: " + segment.getSource());
+			}
+		}
+	}
+
+	/**
+	 * Appends source code to the output.
+	 *
+	 * @param source the source code
+	 */
+	public void append(String source) {
+		output.append(source);
+	}
+
+	/**
+	 * Gets the value of a variable from the given context or the root context.
+	 *
+	 * @param variable the name of the variable
+	 * @param context the current context
+	 * @return the value of the variable, an empty <code>String</code> if it is unknown
+	 */
+	private String getVariable(String variable, TemplateContext context) {
+		String value = context.getVariable(variable);
+		if(value == null && context != rootContext)
+			value = rootContext.getVariable(variable);
+
+		if(value == null) {
+			logger.error("Could not find variable: " + variable);
+			value = "";
+		}
+
+		return value;
+	}
+
+	/**
+	 * Gets the rendered source code with all imports in place.
+	 *
+	 * @return the source code
+	 */
+	public String getResult() {
+		if(importsPosition == -1)
+			return output.toString();
+
+		StringBuilder importsStringBuilder = new StringBuilder();
+		for(String singleImport : imports) {
+			importsStringBuilder.append("import ");
+			importsStringBuilder.append(singleImport);
+			importsStringBuilder.append(";\n");
+		}
+
+		StringBuilder resultBuilder = new StringBuilder(output.length() + importsStringBuilder.length());
+		resultBuilder.append(output, 0, importsPosition);
+		resultBuilder.append(importsStringBuilder);
+		resultBuilder.append(output, importsPosition, output.length());
+
+		return resultBuilder.toString();
+	}
+
+	/**
+	 * @return the imports required by all templates rendered so far
+	 */
+	public Set<String> getImports() {
+		return imports;
+	}
+
+	/**
+	 * Converts a <code>String</code> to a java string literal, including the surrounding quotes.
+	 *
+	 * @param value the <code>String</code>
+	 * @return the java string literal
+	 */
+	public static String toJavaStringLiteral(String value) {
+		StringBuilder resultBuilder = new StringBuilder(value.length() + 2);
+		resultBuilder.append('"');
+
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+			case '"':
+				resultBuilder.append("\\\"");
+				break;
+			case '\\':
+				resultBuilder.append("\\\\");
+				break;
+			case '\n':
+				resultBuilder.append("\\n");
+				break;
+			case '\r':
+				resultBuilder.append("\\r");
+				break;
+			case '\t':
+				resultBuilder.append("\\t");
+				break;
+			default:
+				resultBuilder.append(c);
+			}
+		}
+
+		resultBuilder.append('"');
+		return resultBuilder.toString();
+	}
+}
@@ -0,0 +1,153 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single segment of a parsed {@link de.tuberlin.schenck.taverna_to_hadoop.convert.templates.Template}.
+ * A segment is either literal java source or one of the placeholders described in <code>README.md</code>.
+ *
+ * @author schenck
+ *
+ */
+public class TemplateSegment {
+	/**
+	 * The kinds of segments a template consists of.
+	 */
+	public enum Type {
+		/** Literal text that is copied as is. */
+		LITERAL,
+		/** <code>&lt;%= variable %&gt;</code> */
+		VARIABLE,
+		/** <code>&lt;%@ include mapreduce %&gt;</code> */
+		INCLUDE_MAPREDUCE,
+		/** <code>&lt;%@ include run %&gt;</code> */
+		INCLUDE_RUN,
+		/** <code>&lt;%@ include file = "filename" %&gt;</code> */
+		INCLUDE_FILE,
+		/** <code>&lt;%@ requires imports = "a.B,c.D" %&gt;</code> */
+		REQUIRES_IMPORTS,
+		/** <code>&lt;%@ imports %&gt;</code> */
+		IMPORTS,
+		/** Any placeholder that is not known. */
+		UNKNOWN
+	}
+
+	/** The type of this segment. */
+	private final Type type;
+
+	/** The original text of this segment as found in the template. */
+	private final String source;
+
+	/** The argument of the placeholder, e.g. the variable or file name. Empty for literals. */
+	private final String argument;
+
+	/** The imports required by a <code>requires imports</code> placeholder. */
+	private final List<String> imports;
+
+	/**
+	 * Constructs a segment.
+	 *
+	 * @param type the type of the segment
+	 * @param source the original text of the segment
+	 * @param argument the argument of the placeholder
+	 */
+	private TemplateSegment(Type type, String source, String argument) {
+		this.type = type;
+		this.source = source;
+		this.argument = argument;
+
+		if(type == Type.REQUIRES_IMPORTS && argument.length() > 0) {
+			imports = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(argument.split(","))));
+		} else {
+			imports = Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Creates a segment of literal text.
+	 *
+	 * @param text the literal text
+	 * @return the segment
+	 */
+	public static TemplateSegment literal(String text) {
+		return new TemplateSegment(Type.LITERAL, text, "");
+	}
+
+	/**
+	 * Creates a segment from a placeholder, including its opening <code>&lt;%</code> and closing <code>%&gt;</code>.
+	 *
+	 * @param placeholder the placeholder as found in the template
+	 * @return the segment
+	 */
+	public static TemplateSegment placeholder(String placeholder) {
+		// Remove all white spaces to make parsing easier
+		String placeholderStripped = placeholder.replaceAll("\\s", "");
+
+		if(placeholderStripped.startsWith("<%=")) {
+			return new TemplateSegment(Type.VARIABLE, placeholder, placeholderStripped.substring(3, placeholderStripped.length() - 2));
+		} else if(placeholderStripped.startsWith("<%@includemapreduce")) {
+			return new TemplateSegment(Type.INCLUDE_MAPREDUCE, placeholder, "");
+		} else if(placeholderStripped.startsWith("<%@includerun")) {
+			return new TemplateSegment(Type.INCLUDE_RUN, placeholder, "");
+		} else if(placeholderStripped.startsWith("<%@includefile")) {
+			return new TemplateSegment(Type.INCLUDE_FILE, placeholder, inQuotes(placeholderStripped));
+		} else if(placeholderStripped.startsWith("<%@requiresimports")) {
+			return new TemplateSegment(Type.REQUIRES_IMPORTS, placeholder, inQuotes(placeholderStripped));
+		} else if(placeholderStripped.equals("<%@imports%>")) {
+			return new TemplateSegment(Type.IMPORTS, placeholder, "");
+		}
+
+		return new TemplateSegment(Type.UNKNOWN, placeholder, "");
+	}
+
+	/**
+	 * Gets the text between the first pair of quotes.
+	 *
+	 * @param text the text to search
+	 * @return the text in quotes or an empty <code>String</code> if there are none
+	 */
+	private static String inQuotes(String text) {
+		int start = text.indexOf('"');
+		int end = start == -1 ? -1 : text.indexOf('"', start + 1);
+		if(end == -1)
+			return "";
+
+		return text.substring(start + 1, end);
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the original text of the segment
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the argument of the placeholder
+	 */
+	public String getArgument() {
+		return argument;
+	}
+
+	/**
+	 * @return the imports required by a <code>requires imports</code> placeholder
+	 */
+	public List<String> getImports() {
+		return imports;
+	}
+
+	@Override
+	public String toString() {
+		return type + ": " + source;
+	}
+}
@@ -0,0 +1,69 @@
+package de.tuberlin.schenck.taverna_to_hadoop.local;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.Primitive;
+import bsh.This;
+import bsh.UtilEvalError;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellTranslator;
+
+/**
+ * Evaluates the script of a beanshell activity.
+ * Every thread gets its own interpreter, which parses the script once and then evaluates it for any number of inputs.
+ *
+ * @author schenck
+ *
+ */
+public class BeanshellEvaluator {
+	/** The name of the beanshell method holding the script. */
+	private static final String METHOD_NAME = "script";
+
+	/** The definition of the beanshell method holding the script. */
+	private String source;
+
+	/** The output ports, in port order. */
+	private List<String> outputPorts;
+
+	/** The interpreter of each thread. */
+	private ThreadLocal<Interpreter> interpreters = new ThreadLocal<Interpreter>();
+
+	/**
+	 * Creates the evaluator.
+	 *
+	 * @param activityConfig the activity
+	 */
+	public BeanshellEvaluator(BeanshellConfig activityConfig) {
+		source = BeanshellTranslator.wrapScript(METHOD_NAME, activityConfig.getScript(), new ArrayList<String>(activityConfig.getInputPorts().keySet()));
+		outputPorts = activityConfig.getOutputPorts();
+	}
+
+	/**
+	 * Evaluates the script.
+	 *
+	 * @param inputValues the values of the input ports, in port order; <code>String</code>s or lists of them
+	 * @return the values of the output ports, in port order
+	 * @throws EvalError if the script cannot be parsed or fails
+	 * @throws UtilEvalError if the value of an output port cannot be read
+	 */
+	public Object[] evaluate(Object[] inputValues) throws EvalError, UtilEvalError {
+		Interpreter interpreter = interpreters.get();
+		if(interpreter == null) {
+			interpreter = new Interpreter();
+			interpreter.eval(source);
+			interpreters.set(interpreter);
+		}
+
+		This scope = (This) interpreter.getNameSpace().invokeMethod(METHOD_NAME, inputValues, interpreter);
+
+		Object[] outputValues = new Object[outputPorts.size()];
+		for(int i = 0; i < outputValues.length; i++) {
+			outputValues[i] = Primitive.unwrap(scope.getNameSpace().getVariable(outputPorts.get(i)));
+		}
+
+		return outputValues;
+	}
+}
@@ -0,0 +1,626 @@
+package de.tuberlin.schenck.taverna_to_hadoop.local;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import de.tuberlin.schenck.taverna_to_hadoop.convert.WorkflowGraph;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.exceptions.UnsupportedWorkflowException;
+
+/**
+ * Runs a workflow within this JVM instead of on Hadoop, which saves the overhead of jobs for small and medium inputs.
+ * <p>
+ * Every activity runs as a task of a fork/join pool as soon as the activities it receives data from are done,
+ * and evaluates its script for chunks of its inputs on all threads of the pool.
+ * Data between activities is held in memory, only the outputs of the workflow are written to disk.
+ * <p>
+ * Inputs, outputs, lists, iteration and incomplete inputs are handled like by the generated Hadoop jobs,
+ * so the results are interchangeable:
+ * inputs are read from <code>out/&lt;activity&gt;&lt;port&gt;</code>,
+ * outputs are written to <code>&lt;activity&gt;out/&lt;port&gt;-r-00000</code>, sorted by key.
+ *
+ * @author schenck
+ *
+ */
+public class LocalWorkflowRunner {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(LocalWorkflowRunner.class);
+
+	/** The maximum number of inputs a task evaluates without splitting them further. */
+	private static final int CHUNK_SIZE = 256;
+
+	/** The separator of the indices in the keys of list elements. */
+	private static final char SEPARATOR = '.';
+
+	/** The charset of inputs and outputs. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The graph of the workflow. */
+	private WorkflowGraph graph;
+
+	/** The directory containing the folder "out" with the inputs, with trailing slash or empty. */
+	private String pathPrefix;
+
+	/** The number of threads. */
+	private int threads;
+
+	/** The records sent to each input port by activity and port name, and to each output port of the workflow by port name. */
+	private ConcurrentMap<String, Queue<Record>> data = new ConcurrentHashMap<String, Queue<Record>>();
+
+	/**
+	 * Creates the runner.
+	 *
+	 * @param graph the graph of the workflow
+	 * @param pathPrefix the directory containing the folder "out" with the inputs, empty for the working directory
+	 * @param threads the number of threads
+	 * @throws UnsupportedWorkflowException if an activity cannot run locally
+	 */
+	public LocalWorkflowRunner(WorkflowGraph graph, String pathPrefix, int threads) throws UnsupportedWorkflowException {
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			if(!(activityConfig instanceof BeanshellConfig))
+				throw new UnsupportedWorkflowException("Activity " + activityConfig + " cannot run locally.");
+		}
+
+		this.graph = graph;
+		this.pathPrefix = pathPrefix.length() == 0 || pathPrefix.endsWith("/") ? pathPrefix : pathPrefix + "/";
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Runs the workflow and writes its outputs.
+	 *
+	 * @return whether or not the workflow ran
+	 */
+	public boolean run() {
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			File outputDirectory = new File(pathPrefix + activityConfig.getName() + "out");
+			if(graph.isOutputActivity(activityConfig) && outputDirectory.exists()) {
+				logger.error("Output directory " + outputDirectory + " already exists.");
+				return false;
+			}
+		}
+
+		try {
+			readInputs();
+		} catch (IOException e) {
+			logger.error("Could not read inputs.", e);
+			return false;
+		}
+
+		final List<ActivityTask> tasks = new ArrayList<ActivityTask>(graph.getActivities().size());
+		Map<ActivityConfig, ActivityTask> taskByActivity = new HashMap<ActivityConfig, ActivityTask>();
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			List<ActivityTask> previousTasks = new ArrayList<ActivityTask>();
+			for(ActivityConfig predecessor : graph.getPredecessors(activityConfig)) {
+				previousTasks.add(taskByActivity.get(predecessor));
+			}
+
+			ActivityTask task = new ActivityTask((BeanshellConfig) activityConfig, previousTasks);
+			taskByActivity.put(activityConfig, task);
+			tasks.add(task);
+		}
+
+		logger.info("Running " + tasks.size() + " activities on " + threads + " threads.");
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					for(ActivityTask task : tasks) {
+						task.fork();
+					}
+					for(ActivityTask task : tasks) {
+						task.join();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			logger.error("Could not run workflow.", e);
+			return false;
+		} finally {
+			pool.shutdown();
+		}
+
+		try {
+			writeOutputs();
+		} catch (IOException e) {
+			logger.error("Could not write outputs.", e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the inputs of the workflow, i.e. the files and the files in the folders within "out" named after activity and port.
+	 * Files are assigned to ports like the generated mappers do, see {@link #belongsToPort(File, String)}.
+	 *
+	 * @throws IOException if an input cannot be read
+	 */
+	private void readInputs() throws IOException {
+		File inputDirectory = new File(pathPrefix + "out");
+		File[] inputs = inputDirectory.listFiles();
+		if(inputs == null)
+			inputs = new File[0];
+		Arrays.sort(inputs);
+
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			for(Map.Entry<String, String> inputPort : activityConfig.getInputPorts().entrySet()) {
+				// Empty if input port of workflow
+				if(inputPort.getValue().length() > 0)
+					continue;
+
+				String name = activityConfig.getInputName() + inputPort.getKey();
+				Queue<Record> records = getRecords(name);
+				for(File input : inputs) {
+					if(!input.getName().startsWith(name))
+						continue;
+
+					File[] files = input.isDirectory() ? input.listFiles() : new File[] { input };
+					Arrays.sort(files);
+					for(File file : files) {
+						if(file.isFile() && !file.getName().startsWith(".") && !file.getName().startsWith("_") && belongsToPort(file, name))
+							readRecords(file, records);
+					}
+				}
+
+				if(records.isEmpty())
+					logger.warn("No inputs for " + name + " in " + inputDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file belongs to an input port, with the rule of the generated mappers:
+	 * the file is within the folder named after activity and port, or its name is activity and port followed by a dash.
+	 * So the folder of port <code>in10</code> does not belong to port <code>in1</code>.
+	 *
+	 * @param file the file
+	 * @param name the name of activity and port, e.g. <code>onein1</code>
+	 * @return whether or not the file belongs to the port
+	 */
+	private static boolean belongsToPort(File file, String name) {
+		return file.getName().startsWith(name + "-") || file.getParentFile().getName().equals(name);
+	}
+
+	/**
+	 * Reads the lines of a file as records, the key being separated from the value by the first tab.
+	 *
+	 * @param file the file
+	 * @param records the records to add to
+	 * @throws IOException if the file cannot be read
+	 */
+	private static void readRecords(File file, Queue<Record> records) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if(tab < 0)
+					records.add(new Record(line, ""));
+				else
+					records.add(new Record(line.substring(0, tab), line.substring(tab + 1)));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes the records sent to the output ports of the workflow, sorted by key.
+	 *
+	 * @throws IOException if an output cannot be written
+	 */
+	private void writeOutputs() throws IOException {
+		Set<String> inputNames = new HashSet<String>();
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			for(String inputPort : activityConfig.getInputPorts().keySet()) {
+				inputNames.add(activityConfig.getInputName() + inputPort);
+			}
+		}
+
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			for(String outputPort : activityConfig.getOutputPorts()) {
+				String target = activityConfig.getOutputToNextInput().get(outputPort);
+				if(target == null || inputNames.contains(target))
+					continue;
+
+				List<Record> records = new ArrayList<Record>(getRecords(target));
+				Collections.sort(records, new Comparator<Record>() {
+					@Override
+					public int compare(Record record1, Record record2) {
+						return record1.key.compareTo(record2.key);
+					}
+				});
+
+				File outputDirectory = new File(pathPrefix + activityConfig.getName() + "out");
+				outputDirectory.mkdirs();
+				File file = new File(outputDirectory, target + "-r-00000");
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+				try {
+					for(Record record : records) {
+						writer.write(record.key);
+						writer.write('\t');
+						writer.write(record.value);
+						writer.write('\n');
+					}
+				} finally {
+					writer.close();
+				}
+				logger.info("Wrote " + records.size() + " records to " + file);
+			}
+		}
+	}
+
+	/**
+	 * @param name the activity and port name or the name of an output port of the workflow
+	 * @return the records sent to the port
+	 */
+	private Queue<Record> getRecords(String name) {
+		Queue<Record> records = data.get(name);
+		if(records == null) {
+			data.putIfAbsent(name, new ConcurrentLinkedQueue<Record>());
+			records = data.get(name);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Finds where the last indices of a key start.
+	 *
+	 * @param key the key
+	 * @param levels the number of indices
+	 * @return the position of the separator in front of the indices or -1 if the key has fewer indices
+	 */
+	private static int split(String key, int levels) {
+		int position = key.length();
+		for(int i = 0; i < levels; i++) {
+			position = key.lastIndexOf(SEPARATOR, position - 1);
+			if(position < 0)
+				return -1;
+		}
+
+		return position;
+	}
+
+	/**
+	 * @param key the key
+	 * @param index the indices to append, may be empty
+	 * @return the key of the element
+	 */
+	private static String append(String key, String index) {
+		if(index.length() == 0)
+			return key;
+
+		return key + SEPARATOR + index;
+	}
+
+	/**
+	 * A key and a value.
+	 */
+	private static class Record {
+		private final String key;
+		private final String value;
+
+		public Record(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Runs an activity once all activities it receives data from are done.
+	 */
+	private class ActivityTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private BeanshellConfig activityConfig;
+		private List<ActivityTask> previousTasks;
+		private BeanshellEvaluator evaluator;
+		private List<String> inputPorts;
+
+		private AtomicInteger evaluations = new AtomicInteger();
+		private AtomicInteger failures = new AtomicInteger();
+		private AtomicInteger incompleteInputs = new AtomicInteger();
+		private AtomicInteger duplicateInputValues = new AtomicInteger();
+		private AtomicInteger malformedKeys = new AtomicInteger();
+
+		public ActivityTask(BeanshellConfig activityConfig, List<ActivityTask> previousTasks) {
+			this.activityConfig = activityConfig;
+			this.previousTasks = previousTasks;
+		}
+
+		@Override
+		protected void compute() {
+			for(ActivityTask previousTask : previousTasks) {
+				previousTask.join();
+			}
+
+			long start = System.currentTimeMillis();
+			evaluator = new BeanshellEvaluator(activityConfig);
+			inputPorts = new ArrayList<String>(activityConfig.getInputPorts().keySet());
+
+			if(activityConfig.isMapOnly()) {
+				// Every record holds all inputs for its key
+				List<Record> records = new ArrayList<Record>(getRecords(activityConfig.getInputName() + inputPorts.get(0)));
+				invokeAll(new EvaluationAction(this, records, 0, records.size()));
+			} else {
+				List<Map.Entry<String, List<Map<String, Object>>>> groups = new ArrayList<Map.Entry<String, List<Map<String, Object>>>>(group().entrySet());
+				invokeAll(new EvaluationAction(this, groups, 0, groups.size()));
+			}
+
+			logger.info(activityConfig + ": " + evaluations + " evaluations in " + (System.currentTimeMillis() - start) + " ms");
+			logCount(failures, "failed evaluations");
+			logCount(incompleteInputs, "incomplete inputs");
+			logCount(duplicateInputValues, "duplicate input values");
+			logCount(malformedKeys, "malformed keys");
+		}
+
+		/**
+		 * Groups the values of all input ports like the shuffle of the Hadoop job does:
+		 * by their key without the list indices the activity iterates over or re-assembles.
+		 *
+		 * @return the values of each port by index, by key
+		 */
+		private Map<String, List<Map<String, Object>>> group() {
+			Map<String, List<Map<String, Object>>> groups = new LinkedHashMap<String, List<Map<String, Object>>>();
+
+			for(int port = 0; port < inputPorts.size(); port++) {
+				String inputPort = inputPorts.get(port);
+				int indexLevels = activityConfig.getIndexLevels(inputPort);
+				int listDepth = activityConfig.getInputDepth(inputPort);
+
+				for(Record record : getRecords(activityConfig.getInputName() + inputPort)) {
+					String groupKey = record.key;
+					String index = "";
+					if(indexLevels > 0) {
+						int split = split(record.key, indexLevels);
+						if(split < 0) {
+							malformedKeys.incrementAndGet();
+							continue;
+						}
+						groupKey = record.key.substring(0, split);
+						index = record.key.substring(split + 1);
+					}
+
+					List<Map<String, Object>> portValues = groups.get(groupKey);
+					if(portValues == null) {
+						portValues = new ArrayList<Map<String, Object>>(inputPorts.size());
+						for(int i = 0; i < inputPorts.size(); i++) {
+							portValues.add(new LinkedHashMap<String, Object>());
+						}
+						groups.put(groupKey, portValues);
+					}
+
+					try {
+						if(!add(portValues.get(port), index, record.value, listDepth))
+							duplicateInputValues.incrementAndGet();
+					} catch (NumberFormatException e) {
+						malformedKeys.incrementAndGet();
+					}
+				}
+			}
+
+			return groups;
+		}
+
+		/**
+		 * Evaluates the script for a record of a map only activity or for a group of values.
+		 *
+		 * @param item the record or the group
+		 */
+		@SuppressWarnings("unchecked")
+		private void evaluate(Object item) {
+			if(item instanceof Record) {
+				Record record = (Record) item;
+				evaluate(record.key, new Object[] { record.value });
+				return;
+			}
+
+			Map.Entry<String, List<Map<String, Object>>> group = (Map.Entry<String, List<Map<String, Object>>>) item;
+			Object[] inputValues = new Object[inputPorts.size()];
+			if(activityConfig.isCrossProduct())
+				cross(group.getKey(), group.getValue(), 0, inputValues);
+			else
+				dot(group.getKey(), group.getValue(), inputValues);
+		}
+
+		/**
+		 * Evaluates the script for the values of all ports with the same index.
+		 */
+		private void dot(String groupKey, List<Map<String, Object>> portValues, Object[] inputValues) {
+			for(String index : portValues.get(0).keySet()) {
+				boolean complete = true;
+				for(int port = 0; port < inputValues.length && complete; port++) {
+					inputValues[port] = portValues.get(port).get(index);
+					complete = inputValues[port] != null;
+				}
+
+				if(complete)
+					evaluate(append(groupKey, index), inputValues);
+				else
+					incompleteInputs.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Evaluates the script for all combinations of the values of the ports starting at the given one.
+		 */
+		private void cross(String key, List<Map<String, Object>> portValues, int port, Object[] inputValues) {
+			if(port == inputValues.length) {
+				evaluate(key, inputValues);
+				return;
+			}
+
+			if(portValues.get(port).isEmpty()) {
+				incompleteInputs.incrementAndGet();
+				return;
+			}
+
+			for(Map.Entry<String, Object> indexedValue : portValues.get(port).entrySet()) {
+				inputValues[port] = indexedValue.getValue();
+				cross(append(key, indexedValue.getKey()), portValues, port + 1, inputValues);
+			}
+		}
+
+		/**
+		 * Evaluates the script and sends the values of the output ports on.
+		 *
+		 * @param key the key of the output values
+		 * @param inputValues the values of the input ports
+		 */
+		private void evaluate(String key, Object[] inputValues) {
+			Object[] outputValues;
+			try {
+				outputValues = evaluator.evaluate(inputValues);
+			} catch (Exception e) {
+				logger.debug("Could not evaluate beanshell of " + activityConfig + " for " + key, e);
+				failures.incrementAndGet();
+				return;
+			}
+			evaluations.incrementAndGet();
+
+			List<String> outputPorts = activityConfig.getOutputPorts();
+			for(int i = 0; i < outputValues.length; i++) {
+				String target = activityConfig.getOutputToNextInput().get(outputPorts.get(i));
+				if(target != null)
+					write(getRecords(target), key, outputValues[i], activityConfig.getOutputDepth(outputPorts.get(i)));
+			}
+		}
+
+		private void logCount(AtomicInteger count, String what) {
+			if(count.get() > 0)
+				logger.warn(activityConfig + ": " + count + " " + what);
+		}
+	}
+
+	/**
+	 * Adds a value of an input port to its values by index, putting list elements into their list.
+	 *
+	 * @param values the values of the port by index
+	 * @param index the index of the value
+	 * @param value the value
+	 * @param listDepth the depth of the lists the port expects, 0 or 1
+	 * @return <code>false</code> if there already is a value at the index
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean add(Map<String, Object> values, String index, String value, int listDepth) {
+		if(listDepth == 0) {
+			if(values.containsKey(index))
+				return false;
+
+			values.put(index, value);
+			return true;
+		}
+
+		int split = index.lastIndexOf(SEPARATOR);
+		String listIndex = split < 0 ? "" : index.substring(0, split);
+		int position = Integer.parseInt(index.substring(split + 1));
+
+		List<String> list = (List<String>) values.get(listIndex);
+		if(list == null) {
+			list = new ArrayList<String>();
+			values.put(listIndex, list);
+		}
+		while(list.size() <= position) {
+			list.add(null);
+		}
+		if(list.get(position) != null)
+			return false;
+
+		list.set(position, value);
+		return true;
+	}
+
+	/**
+	 * Adds the value of an output port to the records of its target, lists as one record per element.
+	 *
+	 * @param records the records of the target
+	 * @param key the key of the value
+	 * @param value the value
+	 * @param depth the depth of the lists the port produces
+	 */
+	private static void write(Queue<Record> records, String key, Object value, int depth) {
+		if(depth == 0) {
+			records.add(new Record(key, String.valueOf(value)));
+			return;
+		}
+
+		List<?> elements;
+		if(value instanceof List)
+			elements = (List<?>) value;
+		else if(value instanceof Collection)
+			elements = new ArrayList<Object>((Collection<?>) value);
+		else if(value instanceof Object[])
+			elements = Arrays.asList((Object[]) value);
+		else
+			elements = Collections.singletonList(value);
+
+		for(int i = 0; i < elements.size(); i++) {
+			write(records, key + SEPARATOR + i, elements.get(i), depth - 1);
+		}
+	}
+
+	/**
+	 * Evaluates the script of an activity for a range of records or groups, split into chunks that run in parallel.
+	 */
+	private static class EvaluationAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private ActivityTask activityTask;
+		private List<?> items;
+		private int from;
+		private int to;
+
+		public EvaluationAction(ActivityTask activityTask, List<?> items, int from, int to) {
+			this.activityTask = activityTask;
+			this.items = items;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= CHUNK_SIZE) {
+				for(int i = from; i < to; i++) {
+					activityTask.evaluate(items.get(i));
+				}
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new EvaluationAction(activityTask, items, from, middle), new EvaluationAction(activityTask, items, middle, to));
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package de.tuberlin.schenck.taverna_to_hadoop.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext;
+
+/**
+ * A thin client that sends conversion requests to a running {@link de.tuberlin.schenck.taverna_to_hadoop.server.ConversionServer}.
+ * Requests carry the token of the server, which is read from the token file of its port.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionClient {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(ConversionClient.class);
+
+	/** The port of the server. */
+	private int port;
+
+	/**
+	 * Creates the client.
+	 *
+	 * @param port the port of the server on the local machine
+	 */
+	public ConversionClient(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Lets the server convert a workflow.
+	 * Relative paths are resolved against the working directory of the client.
+	 *
+	 * @param inputWorkflow the workflow that is to be translated
+	 * @param outputHadoop where the resulting jar should be put
+	 * @param context the settings of the conversion
+	 * @return whether or not the conversion succeeded
+	 */
+	public boolean convert(String inputWorkflow, String outputHadoop, ConversionContext context) {
+		StringBuilder requestBuilder = new StringBuilder();
+		requestBuilder.append(ConversionServer.COMMAND_CONVERT).append("\n");
+		requestBuilder.append(ConversionServer.KEY_INPUT).append("=").append(new File(inputWorkflow).getAbsolutePath()).append("\n");
+		requestBuilder.append(ConversionServer.KEY_OUTPUT).append("=").append(new File(outputHadoop).getAbsolutePath()).append("\n");
+		requestBuilder.append(ConversionServer.KEY_HADOOP_CLASS_NAME).append("=").append(context.getHadoopClassName()).append("\n");
+		requestBuilder.append(ConversionServer.KEY_HADOOP_PACKAGE_NAME).append("=").append(context.getHadoopPackageName()).append("\n");
+		if(context.getCacheDirectory() != null)
+			requestBuilder.append(ConversionServer.KEY_CACHE).append("=").append(context.getCacheDirectory()).append("\n");
+		if(context.getSharedLibraryDirectory() != null)
+			requestBuilder.append(ConversionServer.KEY_SHARED_LIBRARIES).append("=").append(context.getSharedLibraryDirectory()).append("\n");
+		requestBuilder.append(ConversionServer.KEY_PROFILE).append("=").append(context.getProfile().isEnabled()).append("\n");
+		if(context.getProfile().getJsonFile() != null)
+			requestBuilder.append(ConversionServer.KEY_PROFILE_FILE).append("=").append(new File(context.getProfile().getJsonFile()).getAbsolutePath()).append("\n");
+
+		return send(requestBuilder.toString());
+	}
+
+	/**
+	 * Stops the server.
+	 *
+	 * @return whether or not the server acknowledged the shutdown
+	 */
+	public boolean shutdown() {
+		return send(ConversionServer.COMMAND_SHUTDOWN + "\n");
+	}
+
+	/**
+	 * Sends a request with the token of the server and waits for the answer.
+	 * Output of the server following the answer is printed.
+	 *
+	 * @param request the command and parameters of the request, without the terminating empty line
+	 * @return whether or not the server answered <code>OK</code>
+	 */
+	private boolean send(String request) {
+		String token;
+		try {
+			token = ServerToken.read(port);
+		} catch (IOException e) {
+			logger.error("Could not read token of conversion server on port " + port + " from " + ServerToken.getFile(port), e);
+			return false;
+		}
+
+		Socket socket = null;
+		try {
+			socket = new Socket(InetAddress.getByName(null), port);
+
+			// The token follows the command
+			int command = request.indexOf('\n') + 1;
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), ConversionServer.ENCODING);
+			writer.write(request.substring(0, command));
+			writer.write(ConversionServer.KEY_TOKEN + "=" + token + "\n");
+			writer.write(request.substring(command));
+			writer.write("\n");
+			writer.flush();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ConversionServer.ENCODING));
+			String answer = reader.readLine();
+			String line;
+			while((line = reader.readLine()) != null) {
+				System.out.println(line);
+			}
+			if(answer != null && answer.equals(ConversionServer.ANSWER_OK))
+				return true;
+
+			logger.error("Server answered: " + answer);
+		} catch (IOException e) {
+			logger.error("Could not connect to conversion server on port " + port, e);
+		} finally {
+			try { socket.close(); } catch (Exception e) { /* ignore */ }
+		}
+
+		return false;
+	}
+}
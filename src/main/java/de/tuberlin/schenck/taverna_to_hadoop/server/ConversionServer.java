@@ -0,0 +1,259 @@
+package de.tuberlin.schenck.taverna_to_hadoop.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionProfile;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.TavernaToHadoopConverter;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.WorkflowManager;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * A long running conversion server.
+ * It keeps the workflow reader, the templates and the java compiler loaded
+ * and accepts conversion requests on a local TCP socket.
+ * Every request has to carry the token the server writes to a file only the user can read, see {@link ServerToken}.
+ * <p>
+ * The protocol is line based (UTF-8). A request starts with a command line, followed by
+ * <code>key=value</code> lines and ends with an empty line:
+ * <pre>
+ * CONVERT
+ * token=0123abcd...
+ * input=/path/to/workflow.t2flow
+ * output=/path/to/result.jar
+ * hadoopclassname=Result
+ * hadooppackagename=de.example
+ * cache=/path/to/cache
+ * sharedlibs=/path/to/libraries
+ * profile=true
+ * profilefile=/path/to/profile.json
+ * </pre>
+ * The server answers with a line that is either <code>OK</code> or <code>FAILED</code> followed by a message.
+ * Further lines are output of the conversion for the client, e.g. the profile table.
+ * Other commands are <code>PING</code> and <code>SHUTDOWN</code>.
+ * Workflows are always compiled in memory, since requests are handled concurrently.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionServer {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(ConversionServer.class);
+
+	/** The default port of the server. */
+	public static final int DEFAULT_PORT = 4242;
+
+	/** The encoding of the protocol. */
+	public static final String ENCODING = "UTF-8";
+
+	/** Command to convert a workflow. */
+	public static final String COMMAND_CONVERT = "CONVERT";
+	/** Command to check whether the server is running. */
+	public static final String COMMAND_PING = "PING";
+	/** Command to stop the server. */
+	public static final String COMMAND_SHUTDOWN = "SHUTDOWN";
+
+	/** Answer if a command succeeded. */
+	public static final String ANSWER_OK = "OK";
+	/** Answer if a command failed. */
+	public static final String ANSWER_FAILED = "FAILED";
+
+	/** Key of the token of the server. */
+	public static final String KEY_TOKEN = "token";
+	/** Key of the workflow to convert. */
+	public static final String KEY_INPUT = "input";
+	/** Key of the resulting jar. */
+	public static final String KEY_OUTPUT = "output";
+	/** Key of the hadoop class name. */
+	public static final String KEY_HADOOP_CLASS_NAME = "hadoopclassname";
+	/** Key of the hadoop package name. */
+	public static final String KEY_HADOOP_PACKAGE_NAME = "hadooppackagename";
+	/** Key of the build cache directory. */
+	public static final String KEY_CACHE = "cache";
+	/** Key of the shared library directory. */
+	public static final String KEY_SHARED_LIBRARIES = "sharedlibs";
+	/** Key of the profiling flag. */
+	public static final String KEY_PROFILE = "profile";
+	/** Key of the file the profile is appended to, the profile table is sent back without it. */
+	public static final String KEY_PROFILE_FILE = "profilefile";
+
+	/** The port to listen on. */
+	private int port;
+
+	/** The maximum number of concurrent conversions. */
+	private int threads;
+
+	/** The server socket, bound to the loopback interface. */
+	private ServerSocket serverSocket;
+
+	/** The token clients have to send. */
+	private String token;
+
+	/**
+	 * Creates the server.
+	 *
+	 * @param port the port to listen on
+	 * @param threads the maximum number of concurrent conversions
+	 */
+	public ConversionServer(int port, int threads) {
+		this.port = port;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Loads everything that is shared by all conversions, so that the first request does not have to.
+	 */
+	private void warmUp() {
+		logger.info("Warming up");
+		WorkflowManager.getWorkflowBundleIO();
+		FileUtils.getCompiler();
+
+		String[] templateNames = new File(Config.getPathToTemplates()).list();
+		if(templateNames != null) {
+			for(String templateName : templateNames) {
+				if(templateName.endsWith(".jtemp"))
+					TemplateCache.getTemplate(templateName);
+			}
+		}
+	}
+
+	/**
+	 * Runs the server until it receives a <code>SHUTDOWN</code> command.
+	 *
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public void run() throws IOException {
+		warmUp();
+
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+		token = ServerToken.create(port);
+		logger.info("Listening on " + serverSocket.getLocalSocketAddress() + ", token in " + ServerToken.getFile(port));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			while(!serverSocket.isClosed()) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					// Closed by shutdown
+					break;
+				}
+
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						handle(socket);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try { serverSocket.close(); } catch (Exception e) { /* ignore */ }
+			ServerToken.delete(port, token);
+		}
+
+		logger.info("Server stopped");
+	}
+
+	/**
+	 * Handles a single request.
+	 *
+	 * @param socket the socket of the client
+	 */
+	private void handle(Socket socket) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+
+			String command = reader.readLine();
+			Map<String, String> parameters = new HashMap<String, String>();
+			String line;
+			while((line = reader.readLine()) != null && line.length() > 0) {
+				int separator = line.indexOf('=');
+				if(separator > 0)
+					parameters.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+			}
+
+			String answer;
+			if(!ServerToken.matches(token, parameters.get(KEY_TOKEN))) {
+				logger.warn("Rejected " + command + " request without valid token");
+				answer = ANSWER_FAILED + " Invalid token, see " + ServerToken.getFile(port);
+			} else if(COMMAND_CONVERT.equals(command)) {
+				answer = convert(parameters);
+			} else if(COMMAND_PING.equals(command)) {
+				answer = ANSWER_OK;
+			} else if(COMMAND_SHUTDOWN.equals(command)) {
+				answer = ANSWER_OK;
+				serverSocket.close();
+			} else {
+				answer = ANSWER_FAILED + " Unknown command: " + command;
+			}
+
+			writer.write(answer);
+			writer.write("\n");
+			writer.flush();
+		} catch (IOException e) {
+			logger.error("Could not handle request", e);
+		} finally {
+			try { socket.close(); } catch (Exception e) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * Converts a workflow.
+	 *
+	 * @param parameters the parameters of the request
+	 * @return the answer for the client
+	 */
+	private String convert(Map<String, String> parameters) {
+		String input = parameters.get(KEY_INPUT);
+		String output = parameters.get(KEY_OUTPUT);
+		if(input == null || output == null)
+			return ANSWER_FAILED + " You need to set names for the input and output files.";
+
+		ConversionContext context = new ConversionContext();
+		if(parameters.containsKey(KEY_HADOOP_CLASS_NAME))
+			context.setHadoopClassName(parameters.get(KEY_HADOOP_CLASS_NAME));
+		else
+			context.setHadoopClassName(ConversionContext.hadoopClassNameFromFile(output));
+		if(parameters.containsKey(KEY_HADOOP_PACKAGE_NAME))
+			context.setHadoopPackageName(parameters.get(KEY_HADOOP_PACKAGE_NAME));
+		// Requests run concurrently and may share a class name, so they must not compile in the same directories on disk
+		context.setInMemoryCompilation(true);
+		context.setCacheDirectory(parameters.get(KEY_CACHE));
+		context.setSharedLibraryDirectory(parameters.get(KEY_SHARED_LIBRARIES));
+		context.setProfile(new ConversionProfile(Boolean.parseBoolean(parameters.get(KEY_PROFILE)), parameters.get(KEY_PROFILE_FILE)));
+
+		logger.info("Converting " + input + " to " + output);
+		try {
+			if(new TavernaToHadoopConverter(input, output, context).convert()) {
+				// The table is printed by the server, the client needs its own copy
+				if(context.getProfile().isEnabled() && context.getProfile().getJsonFile() == null)
+					return ANSWER_OK + "\n" + context.getProfile().toTable(input).trim();
+				return ANSWER_OK;
+			}
+		} catch (RuntimeException e) {
+			logger.error("Could not convert " + input, e);
+		}
+
+		return ANSWER_FAILED + " Could not convert " + input + ", see server log for details.";
+	}
+}
@@ -0,0 +1,126 @@
+package de.tuberlin.schenck.taverna_to_hadoop.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * The shared secret of a {@link de.tuberlin.schenck.taverna_to_hadoop.server.ConversionServer} and its clients.
+ * The server creates a random token when it starts and writes it to a file in the home directory of the user,
+ * readable by the user only. Clients send it with every request, so other users of the machine cannot use the server.
+ *
+ * @author schenck
+ *
+ */
+public class ServerToken {
+	/** The directory of the token files, within the home directory of the user. */
+	private static final String DIRECTORY = ".taverna-to-hadoop";
+
+	/** The number of random bytes of a token. */
+	private static final int TOKEN_BYTES = 32;
+
+	/** The encoding of token files. */
+	private static final Charset ENCODING = Charset.forName(ConversionServer.ENCODING);
+
+	/**
+	 * @param port the port of the server
+	 * @return the file holding the token of the server on that port
+	 */
+	public static File getFile(int port) {
+		return new File(new File(System.getProperty("user.home"), DIRECTORY), "server-" + port + ".token");
+	}
+
+	/**
+	 * Creates a new random token and writes it to the token file of the port, replacing the token of an earlier server.
+	 *
+	 * @param port the port of the server
+	 * @return the token
+	 * @throws IOException if the token file cannot be written
+	 */
+	public static String create(int port) throws IOException {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder tokenBuilder = new StringBuilder();
+		for(byte b : bytes) {
+			tokenBuilder.append(String.format("%02x", b));
+		}
+		String token = tokenBuilder.toString();
+
+		File file = getFile(port);
+		File directory = file.getParentFile();
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+		setOwnerOnly(directory.toPath(), "rwx------");
+
+		// Created with its permissions, so the token is never readable by others
+		Path path = file.toPath();
+		Files.deleteIfExists(path);
+		try {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			Files.createFile(path);
+			setOwnerOnly(path, "rw-------");
+		}
+		Files.write(path, token.getBytes(ENCODING));
+
+		return token;
+	}
+
+	/**
+	 * @param port the port of the server
+	 * @return the token of the server on that port
+	 * @throws IOException if there is no token file, e.g. because no server was started
+	 */
+	public static String read(int port) throws IOException {
+		return new String(Files.readAllBytes(getFile(port).toPath()), ENCODING).trim();
+	}
+
+	/**
+	 * Deletes the token file of the port, if it still holds the given token.
+	 *
+	 * @param port the port of the server
+	 * @param token the token of the server
+	 */
+	public static void delete(int port, String token) {
+		try {
+			if(matches(token, read(port)))
+				Files.deleteIfExists(getFile(port).toPath());
+		} catch (IOException e) {
+			// Already gone
+		}
+	}
+
+	/**
+	 * Compares tokens in constant time.
+	 *
+	 * @param token the token of the server
+	 * @param sent the token sent by a client, may be <code>null</code>
+	 * @return whether or not the tokens are the same
+	 */
+	public static boolean matches(String token, String sent) {
+		return sent != null && MessageDigest.isEqual(token.getBytes(ENCODING), sent.getBytes(ENCODING));
+	}
+
+	/**
+	 * Restricts a file to its owner.
+	 *
+	 * @param path the file
+	 * @param permissions the POSIX permissions, used where supported
+	 */
+	private static void setOwnerOnly(Path path, String permissions) throws IOException {
+		try {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+		} catch (UnsupportedOperationException e) {
+			File file = path.toFile();
+			file.setReadable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(false, false);
+			file.setWritable(true, true);
+		}
+	}
+}
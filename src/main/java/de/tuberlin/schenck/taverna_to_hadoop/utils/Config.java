@@ -1,40 +1,19 @@
 package de.tuberlin.schenck.taverna_to_hadoop.utils;
 
-import java.util.HashMap;
-import java.util.Map;
-
-public class Config {	
+/**
+ * Settings that are shared by all conversions within this JVM.
+ * Settings of a single conversion are kept in a {@link de.tuberlin.schenck.taverna_to_hadoop.convert.ConversionContext}.
+ */
+public class Config {
 	/** The default path to the templates. */
-	private static String pathToTemplates = "resources/templates/";
-	
-	/** The default class name of the resulting hadoop class. */
-	private static String hadoopClassName = "HadoopClass";
-	
-	/** The default package name for the resulting hadoop class. */
-	private static String hadoopPackageName = "de.tuberlin.schenck.taverna_to_hadoop.generated";
-	
+	private static volatile String pathToTemplates = "resources/templates/";
+
+	/** Whether <code>.t2flow</code> files are read by the streaming reader, falling back to scufl2 for what it cannot handle. Off by default. */
+	private static volatile boolean streamingReader = false;
+
 	/** The default package name for activity configs. */
-	private static String activityConfigsPackage = "de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.";
-	
-	/** A counter that increases every time it is called */
-	private static int counter = 0;
-	
-	/** A map from activity URIs to templates. */
-	private static Map<String, String> mapperMapping = new HashMap<String, String>();
-	/** A map from activity URIs to templates. */
-	private static Map<String, String> reducerMapping = new HashMap<String, String>();
-	
-	/** All Activity Configurations. */
-	private  static Map<String, String> activityConfigurations = new HashMap<String, String>();
-	
-	public static String getActivityConfiguration(String key) {
-		return activityConfigurations.get(key);
-	}
-	
-	public static void putActivityConfiguration(String key, String value) {
-		Config.activityConfigurations.put(key, value);
-	}
-	
+	private static final String activityConfigsPackage = "de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.";
+
 	public static String getPathToTemplates() {
 		return pathToTemplates;
 	}
@@ -43,43 +22,15 @@ public class Config {
 		Config.pathToTemplates = pathToTemplates;
 	}
 
-	public static String getHadoopClassName() {
-		return hadoopClassName;
-	}
-
-	public static void setHadoopClassName(String hadoopClass) {
-		Config.hadoopClassName = hadoopClass;
+	public static boolean isStreamingReader() {
+		return streamingReader;
 	}
 
-	public static String getHadoopPackageName() {
-		return hadoopPackageName;
+	public static void setStreamingReader(boolean streamingReader) {
+		Config.streamingReader = streamingReader;
 	}
 
-	public static void setHadoopPackageName(String hadoopPackageName) {
-		Config.hadoopPackageName = hadoopPackageName;
-	}
-	
 	public static String getActivityConfigsPackage() {
 		return activityConfigsPackage;
 	}
-
-	public static int getCount() {
-		return Config.counter++;
-	}
-
-	public static Map<String, String> getMapperMapping() {
-		return mapperMapping;
-	}
-
-	public static void setMapperMapping(Map<String, String> mapperMapping) {
-		Config.mapperMapping = mapperMapping;
-	}
-
-	public static Map<String, String> getReducerMapping() {
-		return reducerMapping;
-	}
-
-	public static void setReducerMapping(Map<String, String> reducerMapping) {
-		Config.reducerMapping = reducerMapping;
-	}
 }
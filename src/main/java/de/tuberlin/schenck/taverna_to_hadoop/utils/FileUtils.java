@@ -1,8 +1,10 @@
 package de.tuberlin.schenck.taverna_to_hadoop.utils;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -10,12 +12,21 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
 
 import org.apache.log4j.Logger;
@@ -29,6 +40,9 @@ import org.apache.log4j.Logger;
 public class FileUtils {
 	/** The logger for this class. */
 	private static Logger logger = Logger.getLogger(FileUtils.class);
+	
+	/** The java compiler, shared by all conversions. */
+	private static JavaCompiler compiler;
 
 	/**
 	 * Reads a file into a {@link String}.
@@ -87,8 +101,6 @@ public class FileUtils {
 		while((line = reader.readLine()) != null) {
 			resultBuilder.append(line);
 			resultBuilder.append("\n");
-
-			logger.debug("Read line: " + line);
 		}
 
 		try { reader.close(); } catch (Exception e) { /* ignore */ }
@@ -118,67 +130,209 @@ public class FileUtils {
 	}
 
 	/**
-	 * Creates a jar file with compiled versions of the generated classes.
-	 * First, the given class in the given package is compiled.
-	 * Then it is added to a .jar and declared the main class in the manifest.
+	 * Gets the system java compiler. It is looked up only once.
 	 * 
-	 * @param output the resulting .jar file.
-	 * @param packageName the package name of the class to compile/jar.
-	 * @param className the class name of the class to compile/jar.
+	 * @return the compiler or <code>null</code> if there is none, e.g. when not running on a JDK
+	 */
+	public static synchronized JavaCompiler getCompiler() {
+		if(compiler == null)
+			compiler = ToolProvider.getSystemJavaCompiler();
+		
+		return compiler;
+	}
+
+	/**
+	 * Compiles the generated class from its source file in <code>src/main/java</code> into <code>target</code>.
+	 * The compiled classes, including all nested classes, are read back.
+	 * 
+	 * @param packageName the package name of the class to compile.
+	 * @param className the class name of the class to compile.
+	 * @return the byte code by binary class name or <code>null</code> if the class could not be compiled
 	 */
-	public static void createJar(String output, String packageName, String className) {
+	public static Map<String, byte[]> compileOnDisk(String packageName, String className) {
 		logger.info("Compiling generated classes");
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		JavaCompiler compiler = getCompiler();
+		if(compiler == null) {
+			logger.error("Could not find a java compiler. Please use a JDK.");
+			return null;
+		}
+
+		// Classes of earlier conversions to the same class name must not end up in the jar
+		File[] staleClasses = new File("target/" + packageName.replaceAll("\\.", "/")).listFiles();
+		if(staleClasses != null) {
+			for(File staleClass : staleClasses) {
+				String name = staleClass.getName();
+				if((name.equals(className + ".class") || name.startsWith(className + "$")) && name.endsWith(".class") && !staleClass.delete())
+					logger.warn("Could not delete old class file " + staleClass);
+			}
+		}
 
 		String javaLocation = "src/main/java/" + packageName.replaceAll("\\.", "/") + "/" + className + ".java";
-		if(compiler.run(null, null, null, javaLocation, "-d", "target/") != 0)
+		if(compiler.run(null, null, null, javaLocation, "-d", "target/") != 0) {
 			logger.error("Could not compile generated classes");
+			return null;
+		}
 
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+		try {
+			File classFile = new File("target/" + packageName.replaceAll("\\.", "/") + "/" + className + ".class");
+			classFiles.put(packageName + "." + className, readFile(classFile));
+			
+			// Nested map and reduce classes
+			File[] nestedClasses = classFile.getParentFile().listFiles();
+			if(nestedClasses != null) {
+				for(File nestedClass : nestedClasses) {
+					String name = nestedClass.getName();
+					if(name.startsWith(className + "$") && name.endsWith(".class"))
+						classFiles.put(packageName + "." + name.substring(0, name.length() - 6), readFile(nestedClass));
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not read compiled classes", e);
+			return null;
+		}
+		
+		return classFiles;
+	}
+
+	/**
+	 * Compiles the generated class in memory, including all nested classes.
+	 * Errors of the compiler are logged.
+	 * 
+	 * @param qualifiedClassName the fully qualified name of the class
+	 * @param source the java source code of the class.
+	 * @return the byte code by binary class name or <code>null</code> if the class could not be compiled
+	 */
+	public static Map<String, byte[]> compileInMemory(String qualifiedClassName, String source) {
+		logger.info("Compiling generated classes in memory");
+		JavaCompiler compiler = getCompiler();
+		if(compiler == null) {
+			logger.error("Could not find a java compiler. Please use a JDK.");
+			return null;
+		}
+		
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		Map<String, byte[]> classFiles = compileInMemory(qualifiedClassName, source, diagnostics);
+		
+		if(classFiles == null) {
+			for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				logger.error("Line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(Locale.ENGLISH));
+			}
+			logger.error("Could not compile generated classes");
+		}
+		
+		return classFiles;
+	}
+
+	/**
+	 * Writes compiled classes into a jar file and declares the given class the main class in the manifest.
+	 * 
+	 * @param output the resulting .jar file.
+	 * @param qualifiedClassName the fully qualified name of the main class.
+	 * @param classFiles the byte code by binary class name.
+	 * @return whether or not the jar was created
+	 */
+	public static boolean writeJar(String output, String qualifiedClassName, Map<String, byte[]> classFiles) {
+		return writeJar(output, qualifiedClassName, classFiles, Collections.<String, byte[]>emptyMap());
+	}
+
+	/**
+	 * Writes compiled classes and other resources into a jar file and declares the given class the main class in the manifest.
+	 * 
+	 * @param output the resulting .jar file.
+	 * @param qualifiedClassName the fully qualified name of the main class.
+	 * @param classFiles the byte code by binary class name.
+	 * @param resources the other resources by path within the jar.
+	 * @return whether or not the jar was created
+	 */
+	public static boolean writeJar(String output, String qualifiedClassName, Map<String, byte[]> classFiles, Map<String, byte[]> resources) {
 		logger.info("Generating JAR file.");
 		// Create Manifest
 		Manifest manifest = new Manifest();
 		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, packageName + "." + className);
-
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, qualifiedClassName);
+		
 		JarOutputStream jarOutStream = null;
 		try {
-			jarOutStream = new JarOutputStream(new FileOutputStream(output), manifest);
-
-			String classLocation = "target/" + packageName.replaceAll("\\.", "/") + "/" + className + ".class";
-			addToJar(new File(classLocation), jarOutStream);
+			jarOutStream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output)), manifest);
+			
+			long time = System.currentTimeMillis();
+			for(Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+				JarEntry entry = new JarEntry(classFile.getKey().replace('.', '/') + ".class");
+				entry.setTime(time);
+				jarOutStream.putNextEntry(entry);
+				jarOutStream.write(classFile.getValue());
+				jarOutStream.closeEntry();
+			}
+			for(Map.Entry<String, byte[]> resource : resources.entrySet()) {
+				JarEntry entry = new JarEntry(resource.getKey());
+				entry.setTime(time);
+				jarOutStream.putNextEntry(entry);
+				jarOutStream.write(resource.getValue());
+				jarOutStream.closeEntry();
+			}
 		} catch (FileNotFoundException e) {
 			logger.error("Could not create JAR File", e);
+			return false;
 		} catch (IOException e) {
 			logger.error("Could not create JAR File", e);
+			return false;
 		} finally {
 			try { jarOutStream.close(); } catch (Exception e) { /*ignore*/ }
 		}
+		
+		return true;
+	}
+
+	/**
+	 * Compiles a single java source file in memory.
+	 * 
+	 * @param qualifiedClassName the fully qualified name of the class
+	 * @param source the source code
+	 * @param diagnostics collects the errors of the compiler
+	 * @return the byte code by binary class name or <code>null</code> if the source cannot be compiled
+	 */
+	public static Map<String, byte[]> compileInMemory(String qualifiedClassName, String source, DiagnosticCollector<JavaFileObject> diagnostics) {
+		JavaCompiler compiler = getCompiler();
+		if(compiler == null)
+			return null;
+		
+		InMemoryJavaFileManager fileManager = new InMemoryJavaFileManager(compiler.getStandardFileManager(diagnostics, null, null));
+		try {
+			List<JavaFileObject> compilationUnits = new ArrayList<JavaFileObject>(1);
+			compilationUnits.add(new InMemoryJavaFileManager.SourceFileObject(qualifiedClassName, source));
+			
+			if(!compiler.getTask(null, fileManager, diagnostics, null, null, compilationUnits).call())
+				return null;
+			
+			return fileManager.getClassFiles();
+		} finally {
+			// Also closes the standard file manager and the archives of the class path it opened
+			try { fileManager.close(); } catch (IOException e) { logger.warn("Could not close the file manager", e); }
+		}
 	}
 
 	/**
-	 * Adds a file to a jar output stream.
+	 * Reads a file completely.
 	 * 
-	 * @param source the file to add.
-	 * @param jarOutStream the jar output stream to add the file to.
+	 * @param file the file to read.
+	 * @return the content of the file
 	 * @throws IOException
 	 */
-	private static void addToJar(File source, JarOutputStream jarOutStream) throws IOException {
+	private static byte[] readFile(File file) throws IOException {
 		BufferedInputStream inputStream = null;
 		try {
-			// Remove "target/"
-			JarEntry entry = new JarEntry(source.getPath().substring(7));
-			entry.setTime(source.lastModified());
-			jarOutStream.putNextEntry(entry);
-			inputStream = new BufferedInputStream(new FileInputStream(source));
+			inputStream = new BufferedInputStream(new FileInputStream(file));
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
 
 			byte[] buffer = new byte[1024];
 
 			int count = 0;
 			while ((count = inputStream.read(buffer)) != -1) {
-				jarOutStream.write(buffer, 0, count);
+				outputStream.write(buffer, 0, count);
 			}
 
-			jarOutStream.closeEntry();
+			return outputStream.toByteArray();
 		} finally {
 			try { inputStream.close(); } catch (Exception e) { /*ignore*/ }
 		}
@@ -0,0 +1,112 @@
+package de.tuberlin.schenck.taverna_to_hadoop.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * A {@link javax.tools.JavaFileManager} that keeps all class files emitted by the compiler in memory.
+ * Everything else, e.g. reading the class path, is forwarded to the standard file manager.
+ *
+ * @author schenck
+ *
+ */
+public class InMemoryJavaFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	/** All compiled classes by their binary name, in the order they were emitted. */
+	private Map<String, ClassFileObject> classFiles = new LinkedHashMap<String, ClassFileObject>();
+
+	/**
+	 * Constructs the file manager.
+	 *
+	 * @param fileManager the standard file manager to forward to
+	 */
+	public InMemoryJavaFileManager(StandardJavaFileManager fileManager) {
+		super(fileManager);
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling) {
+		ClassFileObject classFile = new ClassFileObject(className, kind);
+		classFiles.put(className, classFile);
+
+		return classFile;
+	}
+
+	/**
+	 * Gets the byte code of all compiled classes, including nested classes.
+	 *
+	 * @return the byte code by binary class name
+	 */
+	public Map<String, byte[]> getClassFiles() {
+		Map<String, byte[]> result = new LinkedHashMap<String, byte[]>(classFiles.size());
+
+		for(Map.Entry<String, ClassFileObject> classFile : classFiles.entrySet()) {
+			result.put(classFile.getKey(), classFile.getValue().getBytes());
+		}
+
+		return result;
+	}
+
+	/**
+	 * A java source file held in a {@link String}.
+	 */
+	public static class SourceFileObject extends SimpleJavaFileObject {
+		/** The source code. */
+		private String source;
+
+		/**
+		 * Constructs the source file.
+		 *
+		 * @param className the fully qualified name of the class
+		 * @param source the source code
+		 */
+		public SourceFileObject(String className, String source) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	/**
+	 * A class file held in a byte array.
+	 */
+	private static class ClassFileObject extends SimpleJavaFileObject {
+		/** The byte code written by the compiler. */
+		private ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		/**
+		 * Constructs the class file.
+		 *
+		 * @param className the binary name of the class
+		 * @param kind the kind of the file
+		 */
+		public ClassFileObject(String className, Kind kind) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return outputStream;
+		}
+
+		/**
+		 * @return the byte code
+		 */
+		public byte[] getBytes() {
+			return outputStream.toByteArray();
+		}
+	}
+}
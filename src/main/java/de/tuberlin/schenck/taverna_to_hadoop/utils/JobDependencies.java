@@ -0,0 +1,414 @@
+package de.tuberlin.schenck.taverna_to_hadoop.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds the classes of libraries that the generated classes need at run time, e.g. beanshell.
+ * <p>
+ * Starting from the generated classes, every class referenced in the constant pool of a class file is followed transitively.
+ * Classes of the JDK, of Hadoop and of the logging library Hadoop ships with are provided by the cluster and are not followed.
+ * String constants naming a class of a library are followed as well, since libraries like beanshell load some of their classes by name.
+ * <p>
+ * Only the classes that are reached are packaged into the job jar, together with the other resources of their libraries.
+ * Alternatively, the library jars can be shared between jobs, see {@link SharedLibraries}.
+ * <p>
+ * If the converter runs from a jar that bundles its libraries, that jar is not a library of the jobs.
+ * The classes reached in it are packaged one by one, with only the resources in their packages.
+ *
+ * @author schenck
+ *
+ */
+public class JobDependencies {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(JobDependencies.class);
+
+	/** Class names within descriptors and signatures. */
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w$]+(?:/[\\w$]+)*);");
+
+	/** String constants that may name a class. */
+	private static final Pattern CLASS_NAME = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\.[A-Za-z_$][\\w$]*)+");
+
+	/** The packages provided by the cluster, as prefixes of internal class names. */
+	private static final String[] PROVIDED_PACKAGES = { "org/apache/hadoop/", "org/apache/log4j/" };
+
+	/** The class loader of the converter, whose class path contains the libraries. */
+	private ClassLoader classLoader;
+
+	/** The class loader of the JDK. */
+	private ClassLoader jdkClassLoader;
+
+	/** The jar file or class directory the converter itself is loaded from, <code>null</code> if unknown. */
+	private File converterLocation;
+
+	/** The libraries that are needed, by their jar file or class directory. */
+	private Map<File, Library> libraries = new LinkedHashMap<File, Library>();
+
+	/**
+	 * Finds the library classes the generated classes need.
+	 *
+	 * @param generatedClasses the byte code of the generated classes by binary class name
+	 * @param classLoader the class loader to find the libraries with
+	 */
+	public JobDependencies(Map<String, byte[]> generatedClasses, ClassLoader classLoader) {
+		this(generatedClasses, classLoader, getConverterLocation());
+	}
+
+	/**
+	 * Finds the library classes the generated classes need.
+	 *
+	 * @param generatedClasses the byte code of the generated classes by binary class name
+	 * @param classLoader the class loader to find the libraries with
+	 * @param converterLocation the jar file or class directory of the converter, whose classes are never treated as a library
+	 */
+	JobDependencies(Map<String, byte[]> generatedClasses, ClassLoader classLoader, File converterLocation) {
+		this.classLoader = classLoader;
+		this.converterLocation = converterLocation;
+		this.jdkClassLoader = ClassLoader.getSystemClassLoader().getParent();
+
+		Set<String> visited = new HashSet<String>();
+		Deque<byte[]> queue = new ArrayDeque<byte[]>();
+		for(Map.Entry<String, byte[]> generatedClass : generatedClasses.entrySet()) {
+			visited.add(generatedClass.getKey().replace('.', '/'));
+			queue.add(generatedClass.getValue());
+		}
+
+		while(!queue.isEmpty()) {
+			for(String className : referencedClasses(queue.poll())) {
+				if(!visited.add(className) || isProvided(className))
+					continue;
+
+				byte[] classFile = addClass(className);
+				if(classFile != null)
+					queue.add(classFile);
+			}
+		}
+
+		for(Library library : libraries.values()) {
+			logger.info("Job needs " + library.classes.size() + " classes of " + library.location.getName());
+		}
+	}
+
+	/**
+	 * Adds the needed library classes and the resources of their libraries to the contents of a jar.
+	 *
+	 * @param classFiles the byte code by binary class name to add the classes to
+	 * @param resources the resources by path to add the resources to
+	 * @param withoutJars whether or not to leave out libraries that are jars, because they are shared instead
+	 * @throws IOException if a library cannot be read
+	 */
+	public void addTo(Map<String, byte[]> classFiles, Map<String, byte[]> resources, boolean withoutJars) throws IOException {
+		for(Library library : libraries.values()) {
+			if(withoutJars && library.isJar())
+				continue;
+
+			classFiles.putAll(library.classes);
+			if(library.isJar())
+				addResources(library.location, resources, null);
+			else if(library.location.isFile())
+				addResources(library.location, resources, library.getPackages());
+		}
+	}
+
+	/**
+	 * @return the jar files of the needed libraries
+	 */
+	public List<File> getJars() {
+		List<File> jars = new ArrayList<File>();
+		for(Library library : libraries.values()) {
+			if(library.isJar())
+				jars.add(library.location);
+		}
+
+		return jars;
+	}
+
+	/**
+	 * @return the jar file or class directory the converter is loaded from, <code>null</code> if it cannot be found
+	 */
+	private static File getConverterLocation() {
+		try {
+			return new File(JobDependencies.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// No code source, e.g. with a custom class loader
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether a class is provided on the cluster.
+	 *
+	 * @param className the internal name of the class
+	 * @return whether or not the class belongs to the JDK, Hadoop or log4j
+	 */
+	private boolean isProvided(String className) {
+		for(String providedPackage : PROVIDED_PACKAGES) {
+			if(className.startsWith(providedPackage))
+				return true;
+		}
+
+		return jdkClassLoader != null && jdkClassLoader.getResource(className + ".class") != null;
+	}
+
+	/**
+	 * Reads a class from the class path and adds it to its library.
+	 *
+	 * @param className the internal name of the class
+	 * @return the byte code or <code>null</code> if the class is not on the class path
+	 */
+	private byte[] addClass(String className) {
+		URL url = classLoader.getResource(className + ".class");
+		if(url == null)
+			return null;
+
+		File location;
+		try {
+			if(url.getProtocol().equals("jar")) {
+				location = new File(((JarURLConnection) url.openConnection()).getJarFileURL().toURI());
+			} else if(url.getProtocol().equals("file")) {
+				String path = new File(url.toURI()).getPath();
+				location = new File(path.substring(0, path.length() - className.length() - ".class".length()));
+			} else {
+				logger.warn("Cannot package " + className + " from " + url);
+				return null;
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot package " + className + " from " + url, e);
+			return null;
+		} catch (URISyntaxException e) {
+			logger.warn("Cannot package " + className + " from " + url, e);
+			return null;
+		}
+
+		byte[] classFile;
+		try {
+			classFile = read(url.openStream());
+		} catch (IOException e) {
+			logger.warn("Could not read " + url, e);
+			return null;
+		}
+
+		Library library = libraries.get(location);
+		if(library == null) {
+			library = new Library(location, location.equals(converterLocation));
+			libraries.put(location, library);
+		}
+		library.classes.put(className.replace('/', '.'), classFile);
+
+		return classFile;
+	}
+
+	/**
+	 * Adds the resources of a jar that are not classes, e.g. the commands of beanshell.
+	 * The manifest and signatures of the jar are left out.
+	 *
+	 * @param jar the jar
+	 * @param resources the resources by path
+	 * @param packages the directories of the packages whose resources are added, including subdirectories, <code>null</code> for all
+	 * @throws IOException if the jar cannot be read
+	 */
+	private static void addResources(File jar, Map<String, byte[]> resources, Set<String> packages) throws IOException {
+		JarFile jarFile = new JarFile(jar);
+		try {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while(entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if(entry.isDirectory() || name.endsWith(".class") || name.startsWith("META-INF/") || resources.containsKey(name))
+					continue;
+				if(packages != null && !inPackages(name, packages))
+					continue;
+
+				resources.put(name, read(jarFile.getInputStream(entry)));
+			}
+		} finally {
+			try { jarFile.close(); } catch (Exception e) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * @param name the path of a resource
+	 * @param packages the directories of packages
+	 * @return whether or not the resource is in one of the packages or their subdirectories
+	 */
+	private static boolean inPackages(String name, Set<String> packages) {
+		for(String packageDirectory : packages) {
+			if(name.startsWith(packageDirectory))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the classes a class file refers to: classes in its constant pool, in descriptors and signatures,
+	 * and string constants that look like class names.
+	 *
+	 * @param classFile the byte code
+	 * @return the internal names of the classes
+	 */
+	private static Set<String> referencedClasses(byte[] classFile) {
+		Set<String> result = new LinkedHashSet<String>();
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+		try {
+			input.skipBytes(8);
+			int constantPoolCount = input.readUnsignedShort();
+			String[] utf8 = new String[constantPoolCount];
+			List<Integer> classIndexes = new ArrayList<Integer>();
+			List<Integer> stringIndexes = new ArrayList<Integer>();
+
+			for(int i = 1; i < constantPoolCount; i++) {
+				int tag = input.readUnsignedByte();
+				switch(tag) {
+				case 1: // Utf8
+					utf8[i] = input.readUTF();
+					break;
+				case 7: // Class
+					classIndexes.add(input.readUnsignedShort());
+					break;
+				case 8: // String
+					stringIndexes.add(input.readUnsignedShort());
+					break;
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					input.skipBytes(2);
+					break;
+				case 15: // MethodHandle
+					input.skipBytes(3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					input.skipBytes(4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					input.skipBytes(8);
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag);
+				}
+			}
+
+			for(int classIndex : classIndexes) {
+				String className = utf8[classIndex];
+				if(className != null && !className.startsWith("["))
+					result.add(className);
+			}
+			for(String value : utf8) {
+				if(value == null)
+					continue;
+
+				Matcher matcher = DESCRIPTOR_CLASS.matcher(value);
+				while(matcher.find()) {
+					result.add(matcher.group(1));
+				}
+			}
+			for(int stringIndex : stringIndexes) {
+				String value = utf8[stringIndex];
+				if(value != null && CLASS_NAME.matcher(value).matches())
+					result.add(value.replace('.', '/'));
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read class file", e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads a stream completely and closes it.
+	 *
+	 * @param inputStream the stream
+	 * @return the bytes read
+	 * @throws IOException if the stream cannot be read
+	 */
+	private static byte[] read(InputStream inputStream) throws IOException {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while((count = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, count);
+			}
+
+			return outputStream.toByteArray();
+		} finally {
+			try { inputStream.close(); } catch (Exception e) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * A jar file or class directory on the class path, with the classes needed from it.
+	 */
+	private static class Library {
+		/** The jar file or class directory. */
+		private final File location;
+		/** Whether or not this is the location of the converter, which is never packaged or shared as a whole. */
+		private final boolean converter;
+		/** The needed classes by binary name. */
+		private final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+
+		/**
+		 * @param location the jar file or class directory
+		 * @param converter whether or not this is the location of the converter
+		 */
+		private Library(File location, boolean converter) {
+			this.location = location;
+			this.converter = converter;
+		}
+
+		/**
+		 * @return whether or not the library is a jar file of its own
+		 */
+		private boolean isJar() {
+			return !converter && location.isFile();
+		}
+
+		/**
+		 * @return the directories of the packages of the needed classes, e.g. <code>bsh/</code>
+		 */
+		private Set<String> getPackages() {
+			Set<String> packages = new HashSet<String>();
+			for(String className : classes.keySet()) {
+				int lastDot = className.lastIndexOf('.');
+				if(lastDot > 0)
+					packages.add(className.substring(0, lastDot + 1).replace('.', '/'));
+			}
+
+			return packages;
+		}
+	}
+}
\ No newline at end of file
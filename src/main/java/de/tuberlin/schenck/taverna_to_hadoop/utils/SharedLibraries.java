@@ -0,0 +1,131 @@
+package de.tuberlin.schenck.taverna_to_hadoop.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Publishes library jars once to a shared directory of the default file system, usually HDFS.
+ * <p>
+ * Every jar is stored under its name and a hash of its content, so that a published jar never changes
+ * and different versions of a library can be used side by side.
+ * The generated class adds the published jars to the class path of its jobs through the distributed cache,
+ * so that they are localized once per node instead of being shipped within the jar of every job.
+ * The paths of the jars are listed in the resource {@link #LIST_RESOURCE} of the job jar.
+ *
+ * @author schenck
+ *
+ */
+public class SharedLibraries {
+	/** The logger for this class. */
+	private static Logger logger = Logger.getLogger(SharedLibraries.class);
+
+	/** The resource in the job jar listing the paths of the shared libraries, one per line. */
+	public static final String LIST_RESOURCE = "META-INF/shared-libraries";
+
+	/** The number of hex digits of the content hash in the names of published jars. */
+	private static final int HASH_LENGTH = 12;
+
+	/**
+	 * Publishes jars to a shared directory, unless they have been published before.
+	 *
+	 * @param jars the jars
+	 * @param directory the shared directory on the default file system
+	 * @return the qualified paths of the published jars, <code>null</code> if a jar could not be published
+	 */
+	public static List<String> publish(List<File> jars, String directory) {
+		List<String> paths = new ArrayList<String>(jars.size());
+		try {
+			FileSystem fileSystem = FileSystem.get(new Configuration());
+			for(File jar : jars) {
+				String name = jar.getName();
+				if(name.endsWith(".jar"))
+					name = name.substring(0, name.length() - 4);
+
+				// Qualified, so that jobs find the jars even if their default file system differs
+				Path path = fileSystem.makeQualified(new Path(directory, name + "-" + hash(jar) + ".jar"));
+				if(fileSystem.exists(path)) {
+					logger.debug("Already published: " + path);
+				} else {
+					// Copy first and rename afterwards, so that concurrent conversions never see half written jars
+					Path temporaryPath = new Path(directory, "." + path.getName() + "." + System.nanoTime() + ".tmp");
+					fileSystem.copyFromLocalFile(new Path(jar.getAbsolutePath()), temporaryPath);
+					if(!fileSystem.rename(temporaryPath, path))
+						fileSystem.delete(temporaryPath, false);
+					logger.info("Published " + jar + " as " + path);
+				}
+
+				paths.add(path.toString());
+			}
+		} catch (IOException e) {
+			logger.error("Could not publish shared libraries to " + directory, e);
+			return null;
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Lists the paths of the shared libraries for the job jar.
+	 *
+	 * @param paths the paths
+	 * @return the content of {@link #LIST_RESOURCE}
+	 */
+	public static byte[] list(List<String> paths) {
+		StringBuilder listBuilder = new StringBuilder();
+		for(String path : paths) {
+			listBuilder.append(path).append("\n");
+		}
+
+		try {
+			return listBuilder.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Hashes the content of a file.
+	 *
+	 * @param file the file
+	 * @return the beginning of the SHA-1 hash as hex digits
+	 * @throws IOException if the file cannot be read
+	 */
+	private static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			try { inputStream.close(); } catch (Exception e) { /* ignore */ }
+		}
+
+		StringBuilder hashBuilder = new StringBuilder();
+		for(byte b : digest.digest()) {
+			hashBuilder.append(String.format("%02x", b & 0xff));
+		}
+
+		return hashBuilder.substring(0, HASH_LENGTH);
+	}
+}
\ No newline at end of file
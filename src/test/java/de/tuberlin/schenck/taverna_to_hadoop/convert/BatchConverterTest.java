@@ -0,0 +1,24 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests naming the jars of a batch.
+ *
+ * @author schenck
+ *
+ */
+public class BatchConverterTest extends TestCase {
+	public void testJarNamesAreUnique() {
+		Set<String> jarNames = new HashSet<String>();
+
+		assertEquals("wf.jar", BatchConverter.jarName("a/wf.t2flow", jarNames));
+		assertEquals("other.jar", BatchConverter.jarName("a/other.wfbundle", jarNames));
+		assertEquals("wf-2.jar", BatchConverter.jarName("b/wf.t2flow", jarNames));
+		assertEquals("wf-3.jar", BatchConverter.jarName("c/wf.wfbundle", jarNames));
+		assertEquals("Wf2", ConversionContext.hadoopClassNameFromFile("wf-2.jar"));
+	}
+}
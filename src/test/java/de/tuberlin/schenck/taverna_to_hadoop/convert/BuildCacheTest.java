@@ -0,0 +1,115 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import junit.framework.TestCase;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.templates.TemplateCache;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Tests that the key of a conversion changes with everything the built jar depends on.
+ *
+ * @author schenck
+ *
+ */
+public class BuildCacheTest extends TestCase {
+	private String pathToTemplates;
+	private File directory;
+	private File templateDirectory;
+	private File workflow;
+	private BuildCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		pathToTemplates = Config.getPathToTemplates();
+		directory = File.createTempFile("buildcache", "");
+		directory.delete();
+		templateDirectory = new File(directory, "templates");
+		templateDirectory.mkdirs();
+		for(File template : new File(pathToTemplates).listFiles()) {
+			Files.copy(template.toPath(), new File(templateDirectory, template.getName()).toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		}
+		Config.setPathToTemplates(templateDirectory.getPath() + File.separator);
+
+		workflow = new File(directory, "workflow.t2flow");
+		Files.copy(new File("resources/workflows/split_concat.t2flow").toPath(), workflow.toPath());
+		cache = new BuildCache(new File(directory, "cache").getPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Config.setPathToTemplates(pathToTemplates);
+		TemplateCache.clear();
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	public void testSameConversionSameKey() {
+		String key = cache.computeKey(workflow.getPath(), new ConversionContext());
+
+		assertNotNull(key);
+		assertEquals(key, cache.computeKey(workflow.getPath(), new ConversionContext()));
+	}
+
+	public void testTemplateChangesKey() {
+		String key = cache.computeKey(workflow.getPath(), new ConversionContext());
+
+		File template = new File(templateDirectory, "beanshell-activity-reduce.jtemp");
+		FileUtils.writeStringIntoFile(template.getPath(), FileUtils.readFileIntoString(template.getPath()) + "\t// changed\n");
+		template.setLastModified(template.lastModified() + 2000);
+
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), new ConversionContext())));
+	}
+
+	public void testSettingsChangeKey() {
+		String key = cache.computeKey(workflow.getPath(), new ConversionContext());
+
+		ConversionContext context = new ConversionContext();
+		context.setHadoopClassName("Other");
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), context)));
+
+		context = new ConversionContext();
+		context.setHadoopPackageName("de.example");
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), context)));
+
+		context = new ConversionContext();
+		context.setInMemoryCompilation(true);
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), context)));
+
+		context = new ConversionContext();
+		context.setSharedLibraryDirectory("/libraries");
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), context)));
+	}
+
+	public void testWorkflowChangesKey() {
+		String key = cache.computeKey(workflow.getPath(), new ConversionContext());
+
+		FileUtils.writeStringIntoFile(workflow.getPath(), FileUtils.readFileIntoString(workflow.getPath()).replace("bench", "changed"));
+
+		assertFalse(key.equals(cache.computeKey(workflow.getPath(), new ConversionContext())));
+	}
+
+	public void testStoreAndRestore() throws Exception {
+		String key = cache.computeKey(workflow.getPath(), new ConversionContext());
+		File built = new File(directory, "built.jar");
+		FileUtils.writeStringIntoFile(built.getPath(), "jar");
+		File restored = new File(directory, "restored.jar");
+
+		assertFalse(cache.restore(key, restored.getPath()));
+		cache.store(key, built.getPath());
+		assertTrue(cache.restore(key, restored.getPath()));
+		assertEquals("jar\n", FileUtils.readFileIntoString(restored.getPath()));
+	}
+}
@@ -0,0 +1,117 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests how the conversion profile accounts nested phases.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionProfileTest extends TestCase {
+	/** Matches a phase of the JSON profile. */
+	private static final Pattern PHASE = Pattern.compile(
+			"\\{\"phase\":\"([^\"]*)\",\"count\":(\\d+),\"wallNanos\":(-?\\d+),\"cpuNanos\":(-?\\d+),\"allocatedBytes\":(-?\\d+)\\}");
+
+	/**
+	 * Reads the phases from the JSON profile.
+	 *
+	 * @param profile the profile
+	 * @return count and wall time by phase path, in the order of the profile
+	 */
+	private static Map<String, long[]> phases(ConversionProfile profile) {
+		Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+		Matcher matcher = PHASE.matcher(profile.toJson("test"));
+		while(matcher.find()) {
+			phases.put(matcher.group(1), new long[] { Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) });
+		}
+
+		return phases;
+	}
+
+	private static void busy(long millis) {
+		long end = System.nanoTime() + millis * 1000000L;
+		while(System.nanoTime() < end) {
+			// Spin, so that wall and CPU time pass
+		}
+	}
+
+	public void testNestedPhases() {
+		ConversionProfile profile = new ConversionProfile(true, null);
+		profile.start("render");
+		for(int i = 0; i < 3; i++) {
+			profile.start("activity");
+			busy(5);
+			profile.stop();
+		}
+		profile.start("runs");
+		busy(5);
+		profile.stop();
+		profile.stop();
+		profile.start("compile");
+		profile.start("activity");
+		profile.stop();
+		profile.stop();
+
+		Map<String, long[]> phases = phases(profile);
+		assertEquals("[render, render/activity, render/runs, compile, compile/activity]", phases.keySet().toString());
+
+		// Repeated phases are added up, the same name under another parent is a phase of its own
+		assertEquals(1, phases.get("render")[0]);
+		assertEquals(3, phases.get("render/activity")[0]);
+		assertEquals(1, phases.get("compile/activity")[0]);
+
+		// A phase includes the time of its nested phases
+		long nested = phases.get("render/activity")[1] + phases.get("render/runs")[1];
+		assertTrue(phases.get("render/activity")[1] >= 15000000L);
+		assertTrue(phases.get("render")[1] >= nested);
+	}
+
+	public void testTableIndentsNestedPhases() {
+		ConversionProfile profile = new ConversionProfile(true, null);
+		profile.start("render");
+		profile.start("activity");
+		profile.start("script");
+		profile.stop();
+		profile.stop();
+		profile.stop();
+
+		String[] lines = profile.toTable("test").split("\n");
+		assertEquals(5, lines.length);
+		assertTrue(lines[2].startsWith("render "));
+		assertTrue(lines[3].startsWith("  activity "));
+		assertTrue(lines[4].startsWith("    script "));
+	}
+
+	public void testUnbalancedStop() {
+		ConversionProfile profile = new ConversionProfile(true, null);
+		profile.stop();
+		profile.start("render");
+		profile.stop();
+		profile.stop();
+		profile.start("compile");
+		profile.stop();
+
+		// The extra stop does not end a phase that has not started, so compile is not nested
+		assertEquals("[render, compile]", phases(profile).keySet().toString());
+	}
+
+	public void testDisabledProfile() {
+		ConversionProfile profile = new ConversionProfile();
+		profile.start("render");
+		profile.stop();
+
+		assertTrue(phases(profile).isEmpty());
+		assertEquals("{\"workflow\":\"test\",\"phases\":[]}", profile.toJson("test"));
+	}
+
+	public void testJsonEscaping() {
+		ConversionProfile profile = new ConversionProfile(true, null);
+		assertTrue(profile.toJson("a \"b\"\\c\n").startsWith("{\"workflow\":\"a \\\"b\\\"\\\\c\\u000a\""));
+	}
+}
@@ -0,0 +1,64 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import uk.org.taverna.scufl2.api.container.WorkflowBundle;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.BeanshellConfig;
+
+/**
+ * Tests that the streaming reader results in the same graph of activities as the scufl2 reader.
+ *
+ * @author schenck
+ *
+ */
+public class T2FlowReaderTest extends TestCase {
+	/**
+	 * Describes everything of a graph the conversion depends on.
+	 *
+	 * @param graph the graph
+	 * @return the description
+	 */
+	private static String describe(WorkflowGraph graph) {
+		StringBuilder descriptionBuilder = new StringBuilder();
+		for(ActivityConfig activityConfig : graph.getActivities()) {
+			descriptionBuilder.append(activityConfig.getName()).append(" (").append(activityConfig.getClass().getSimpleName()).append(")\n");
+			descriptionBuilder.append("  inputs ").append(activityConfig.getInputPorts()).append('\n');
+			for(String inputPort : activityConfig.getInputPorts().keySet()) {
+				descriptionBuilder.append("  input ").append(inputPort).append(" depth ").append(activityConfig.getInputDepth(inputPort))
+					.append(" key depth ").append(activityConfig.getInputKeyDepth(inputPort)).append('\n');
+			}
+			descriptionBuilder.append("  outputs ").append(activityConfig.getOutputPorts()).append('\n');
+			for(String outputPort : activityConfig.getOutputPorts()) {
+				descriptionBuilder.append("  output ").append(outputPort).append(" depth ").append(activityConfig.getOutputDepth(outputPort))
+					.append(" key depth ").append(activityConfig.getOutputKeyDepth(outputPort)).append('\n');
+			}
+			descriptionBuilder.append("  next inputs ").append(activityConfig.getOutputToNextInput()).append('\n');
+			descriptionBuilder.append("  cross product ").append(activityConfig.isCrossProduct())
+				.append(", max parallelism ").append(activityConfig.getMaxParallelism()).append('\n');
+			if(activityConfig instanceof BeanshellConfig)
+				descriptionBuilder.append("  script ").append(((BeanshellConfig) activityConfig).getScript()).append('\n');
+
+			descriptionBuilder.append("  predecessors");
+			for(ActivityConfig predecessor : graph.getPredecessors(activityConfig)) {
+				descriptionBuilder.append(' ').append(predecessor.getName());
+			}
+			descriptionBuilder.append("\n  output activity ").append(graph.isOutputActivity(activityConfig)).append('\n');
+		}
+
+		return descriptionBuilder.toString();
+	}
+
+	public void testSameGraphAsScufl2() throws Exception {
+		for(String workflow : WorkflowGraphTest.WORKFLOWS) {
+			File file = new File(WorkflowGraphTest.PATH_TO_WORKFLOWS + workflow);
+
+			WorkflowBundle streamed = new T2FlowReader().read(file);
+			assertNotNull(workflow, streamed);
+			WorkflowBundle scufl2 = WorkflowManager.getWorkflowBundleIO().readBundle(file, null);
+
+			assertEquals(workflow, describe(new WorkflowGraph(scufl2)), describe(new WorkflowGraph(streamed)));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs.ActivityConfig;
+
+/**
+ * Tests the graph of activities built from the workflows in <code>resources/workflows</code>.
+ *
+ * @author schenck
+ *
+ */
+public class WorkflowGraphTest extends TestCase {
+	/** The workflows to test with. */
+	static final String[] WORKFLOWS = { "multiple_ports.t2flow", "split_concat.t2flow",
+		"very_simple_one_beanshell.t2flow", "very_simple_two_beanshells.t2flow" };
+
+	/** The directory of the workflows. */
+	static final String PATH_TO_WORKFLOWS = "resources/workflows/";
+
+	private static WorkflowGraph readGraph(String workflow) throws Exception {
+		return new WorkflowManager(PATH_TO_WORKFLOWS + workflow).getGraph();
+	}
+
+	private static List<String> names(List<ActivityConfig> activities) {
+		List<String> names = new ArrayList<String>();
+		for(ActivityConfig activityConfig : activities) {
+			names.add(activityConfig.getName());
+		}
+
+		return names;
+	}
+
+	public void testPredecessorsComeFirst() throws Exception {
+		for(String workflow : WORKFLOWS) {
+			WorkflowGraph graph = readGraph(workflow);
+			List<ActivityConfig> activities = graph.getActivities();
+
+			assertFalse(workflow, activities.isEmpty());
+			for(int i = 0; i < activities.size(); i++) {
+				ActivityConfig activityConfig = activities.get(i);
+				for(ActivityConfig predecessor : graph.getPredecessors(activityConfig)) {
+					int position = activities.indexOf(predecessor);
+					assertTrue(workflow + ": " + predecessor.getName() + " before " + activityConfig.getName(), position >= 0 && position < i);
+				}
+				for(ActivityConfig successor : graph.getSuccessors(activityConfig)) {
+					assertTrue(workflow + ": " + successor.getName() + " after " + activityConfig.getName(), activities.indexOf(successor) > i);
+					assertTrue(workflow + ": " + activityConfig.getName() + " precedes " + successor.getName(),
+							graph.getPredecessors(successor).contains(activityConfig));
+				}
+			}
+		}
+	}
+
+	public void testInputAndOutputActivities() throws Exception {
+		for(String workflow : WORKFLOWS) {
+			WorkflowGraph graph = readGraph(workflow);
+			for(ActivityConfig activityConfig : graph.getActivities()) {
+				assertEquals(workflow + ": " + activityConfig.getName(), graph.getPredecessors(activityConfig).isEmpty(),
+						graph.isInputActivity(activityConfig));
+				// Activities that do not lead to a workflow output are pruned
+				if(graph.getSuccessors(activityConfig).isEmpty())
+					assertTrue(workflow + ": " + activityConfig.getName(), graph.isOutputActivity(activityConfig));
+			}
+		}
+	}
+
+	public void testTwoBeanshells() throws Exception {
+		WorkflowGraph graph = readGraph("very_simple_two_beanshells.t2flow");
+
+		assertEquals("[Beanshell, Beanshell_2]", names(graph.getActivities()).toString());
+		ActivityConfig first = graph.getActivity("Beanshell");
+		ActivityConfig second = graph.getActivity("Beanshell_2");
+		assertTrue(graph.isInputActivity(first));
+		assertFalse(graph.isOutputActivity(first));
+		assertTrue(graph.isOutputActivity(second));
+		assertEquals("Beanshell", second.getInputPorts().get("in2"));
+	}
+
+	public void testMultiplePorts() throws Exception {
+		WorkflowGraph graph = readGraph("multiple_ports.t2flow");
+		List<String> names = names(graph.getActivities());
+
+		assertEquals(8, names.size());
+		assertEquals("one", names.get(0));
+		assertEquals("eight", names.get(7));
+		assertTrue(names.indexOf("three") < names.indexOf("six"));
+		assertTrue(names.indexOf("four") < names.indexOf("seven"));
+		assertEquals(3, graph.getPredecessors(graph.getActivity("six")).size());
+		assertEquals(3, graph.getPredecessors(graph.getActivity("eight")).size());
+	}
+}
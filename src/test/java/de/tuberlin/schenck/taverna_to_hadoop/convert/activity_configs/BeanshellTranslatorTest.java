@@ -0,0 +1,128 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.activity_configs;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import junit.framework.TestCase;
+import bsh.Interpreter;
+import bsh.Primitive;
+import bsh.This;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Tests that translated scripts give the same outputs as the beanshell interpreter they replace.
+ *
+ * @author schenck
+ *
+ */
+public class BeanshellTranslatorTest extends TestCase {
+	/**
+	 * Loads compiled classes from their byte code.
+	 */
+	private static class ByteClassLoader extends ClassLoader {
+		private final Map<String, byte[]> classFiles;
+
+		ByteClassLoader(Map<String, byte[]> classFiles) {
+			super(BeanshellTranslatorTest.class.getClassLoader());
+			this.classFiles = classFiles;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] classFile = classFiles.get(name);
+			if(classFile == null)
+				throw new ClassNotFoundException(name);
+
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	/**
+	 * Runs a script as translated java method.
+	 */
+	private static Object[] runTranslated(String script, List<String> inputPorts, List<String> inputTypes, List<String> outputPorts,
+			Object[] inputValues) throws Exception {
+		String outputType = BeanshellTranslator.getJavaOutputType(script, inputPorts, inputTypes, outputPorts);
+		assertNotNull("Not translated: " + script, outputType);
+
+		StringBuilder sourceBuilder = new StringBuilder("package check;\n");
+		for(String singleImport : BeanshellTranslator.IMPORTS) {
+			sourceBuilder.append("import ").append(singleImport).append(";\n");
+		}
+		sourceBuilder.append("public class Translated {\n\t\t");
+		sourceBuilder.append(BeanshellTranslator.createJavaMethod("script", script, inputPorts, inputTypes, outputPorts, outputType));
+		sourceBuilder.append("\n}\n");
+
+		Map<String, byte[]> classFiles = FileUtils.compileInMemory("check.Translated", sourceBuilder.toString(), new DiagnosticCollector<JavaFileObject>());
+		assertNotNull("Does not compile: " + script, classFiles);
+
+		Class<?>[] parameterTypes = new Class<?>[inputTypes.size()];
+		for(int i = 0; i < parameterTypes.length; i++) {
+			parameterTypes[i] = inputTypes.get(i).startsWith("List") ? List.class : String.class;
+		}
+		Method method = new ByteClassLoader(classFiles).loadClass("check.Translated").getDeclaredMethod("script", parameterTypes);
+		method.setAccessible(true);
+
+		return (Object[]) method.invoke(null, inputValues);
+	}
+
+	/**
+	 * Runs a script with the beanshell interpreter, as scripts that are not translated are run.
+	 */
+	private static Object[] runInterpreted(String script, List<String> inputPorts, List<String> outputPorts, Object[] inputValues) throws Exception {
+		Interpreter interpreter = new Interpreter();
+		interpreter.eval(BeanshellTranslator.wrapScript("script", script, inputPorts));
+		This scope = (This) interpreter.getNameSpace().invokeMethod("script", inputValues, interpreter);
+
+		Object[] outputValues = new Object[outputPorts.size()];
+		for(int i = 0; i < outputValues.length; i++) {
+			outputValues[i] = Primitive.unwrap(scope.getNameSpace().getVariable(outputPorts.get(i)));
+		}
+
+		return outputValues;
+	}
+
+	private static void assertSameOutputs(String script, List<String> inputPorts, List<String> inputTypes, List<String> outputPorts,
+			Object... inputValues) throws Exception {
+		Object[] translated = runTranslated(script, inputPorts, inputTypes, outputPorts, inputValues);
+		Object[] interpreted = runInterpreted(script, inputPorts, outputPorts, inputValues);
+
+		assertEquals(script, String.valueOf(Arrays.asList(interpreted)), String.valueOf(Arrays.asList(translated)));
+	}
+
+	public void testSingleInput() throws Exception {
+		List<String> input = Arrays.asList("input");
+		List<String> string = Arrays.asList("String");
+		List<String> output = Arrays.asList("output");
+
+		assertSameOutputs("output = input + \"_extra2\";", input, string, output, "value");
+		assertSameOutputs("output = input.split(\" \")[0];", input, string, output, "first second third");
+		assertSameOutputs("if(input.isEmpty())\n\toutput = \"empty\";\nelse\n\toutput = input.toUpperCase();", input, string, output, "");
+		assertSameOutputs("if(input.isEmpty())\n\toutput = \"empty\";\nelse\n\toutput = input.toUpperCase();", input, string, output, "value");
+		assertSameOutputs("String[] words = input.split(\" \");\nStringBuilder reversed = new StringBuilder();\n"
+				+ "for(int i = words.length - 1; i >= 0; i--) {\n\treversed.append(words[i]).append(' ');\n}\noutput = reversed.toString().trim();",
+				input, string, output, "first second third");
+	}
+
+	public void testMultiplePorts() throws Exception {
+		assertSameOutputs("out1 = in1 + in2 + in3;\nout2 = in1.length() + \"\";", Arrays.asList("in1", "in2", "in3"),
+				Arrays.asList("String", "String", "String"), Arrays.asList("out1", "out2"), "a", "bb", "ccc");
+	}
+
+	public void testListInputAndObjectOutput() throws Exception {
+		assertSameOutputs("output = words.size() + \":\" + words.get(0);", Arrays.asList("words"), Arrays.asList("List<String>"),
+				Arrays.asList("output"), Arrays.asList("a", "b", "c"));
+		assertSameOutputs("List list = new ArrayList();\nlist.add(input);\nlist.add(input);\noutput = list;", Arrays.asList("input"),
+				Arrays.asList("String"), Arrays.asList("output"), "value");
+	}
+
+	public void testUntypedScriptIsNotTranslated() {
+		assertNull(BeanshellTranslator.getJavaOutputType("n = input.length();\noutput = \"\" + n;", Arrays.asList("input"),
+				Arrays.asList("String"), Arrays.asList("output")));
+	}
+}
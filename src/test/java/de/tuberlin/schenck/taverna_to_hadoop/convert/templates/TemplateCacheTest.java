@@ -0,0 +1,64 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Tests that templates are read once and read again after their file was modified.
+ *
+ * @author schenck
+ *
+ */
+public class TemplateCacheTest extends TestCase {
+	private File templateDirectory;
+	private String pathToTemplates;
+	private File templateFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		templateDirectory = File.createTempFile("templates", "");
+		templateDirectory.delete();
+		templateDirectory.mkdir();
+		pathToTemplates = templateDirectory.getPath() + File.separator;
+		templateFile = new File(templateDirectory, "test.jtemp");
+		FileUtils.writeStringIntoFile(templateFile.getPath(), "first <%= a %>\n");
+		TemplateCache.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TemplateCache.clear();
+		templateFile.delete();
+		templateDirectory.delete();
+	}
+
+	public void testSameTemplateIsReturned() {
+		Template template = TemplateCache.getTemplate(pathToTemplates, "test.jtemp");
+
+		assertEquals("test.jtemp", template.getName());
+		assertEquals("first <%= a %>\n", template.getSource());
+		assertEquals(3, template.getSegments().size());
+		assertSame(template, TemplateCache.getTemplate(pathToTemplates, "test.jtemp"));
+	}
+
+	public void testModifiedTemplateIsReadAgain() {
+		Template template = TemplateCache.getTemplate(pathToTemplates, "test.jtemp");
+
+		FileUtils.writeStringIntoFile(templateFile.getPath(), "second\n");
+		templateFile.setLastModified(templateFile.lastModified() + 2000);
+		Template modified = TemplateCache.getTemplate(pathToTemplates, "test.jtemp");
+
+		assertNotSame(template, modified);
+		assertEquals("second\n", modified.getSource());
+		assertSame(modified, TemplateCache.getTemplate(pathToTemplates, "test.jtemp"));
+	}
+
+	public void testClear() {
+		Template template = TemplateCache.getTemplate(pathToTemplates, "test.jtemp");
+		TemplateCache.clear();
+
+		assertNotSame(template, TemplateCache.getTemplate(pathToTemplates, "test.jtemp"));
+	}
+}
@@ -0,0 +1,137 @@
+package de.tuberlin.schenck.taverna_to_hadoop.convert.templates;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.Config;
+import de.tuberlin.schenck.taverna_to_hadoop.utils.FileUtils;
+
+/**
+ * Tests parsing templates into segments and rendering them.
+ *
+ * @author schenck
+ *
+ */
+public class TemplateRendererTest extends TestCase {
+	private String pathToTemplates;
+	private File templateDirectory;
+
+	/**
+	 * A context with fixed variables that includes fixed source code for <code>include mapreduce</code>.
+	 */
+	private static class MapContext implements TemplateContext {
+		private final Map<String, String> variables = new HashMap<String, String>();
+		private final String mapReduce;
+
+		MapContext(String mapReduce) {
+			this.mapReduce = mapReduce;
+		}
+
+		@Override
+		public String getVariable(String variable) {
+			return variables.get(variable);
+		}
+
+		@Override
+		public boolean include(TemplateSegment segment, TemplateRenderer renderer) {
+			if(mapReduce == null || segment.getType() != TemplateSegment.Type.INCLUDE_MAPREDUCE)
+				return false;
+
+			renderer.append(mapReduce);
+			return true;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		pathToTemplates = Config.getPathToTemplates();
+		templateDirectory = File.createTempFile("templates", "");
+		templateDirectory.delete();
+		templateDirectory.mkdir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Config.setPathToTemplates(pathToTemplates);
+		TemplateCache.clear();
+		for(File file : templateDirectory.listFiles()) {
+			file.delete();
+		}
+		templateDirectory.delete();
+	}
+
+	public void testParseSegments() {
+		Template template = new Template("test", "class <%= className %> {<%@ include mapreduce %><%@include run%>"
+				+ "<%@ include file = \"other.jtemp\" %><%@ requires imports = \"a.B, c.D\" %><%@ imports %><% nonsense %>}");
+		List<TemplateSegment> segments = template.getSegments();
+
+		assertEquals(10, segments.size());
+		assertEquals(TemplateSegment.Type.LITERAL, segments.get(0).getType());
+		assertEquals("class ", segments.get(0).getSource());
+		assertEquals(TemplateSegment.Type.VARIABLE, segments.get(1).getType());
+		assertEquals("className", segments.get(1).getArgument());
+		assertEquals(TemplateSegment.Type.INCLUDE_MAPREDUCE, segments.get(3).getType());
+		assertEquals(TemplateSegment.Type.INCLUDE_RUN, segments.get(4).getType());
+		assertEquals(TemplateSegment.Type.INCLUDE_FILE, segments.get(5).getType());
+		assertEquals("other.jtemp", segments.get(5).getArgument());
+		assertEquals(TemplateSegment.Type.REQUIRES_IMPORTS, segments.get(6).getType());
+		assertEquals(2, segments.get(6).getImports().size());
+		assertEquals("a.B", segments.get(6).getImports().get(0));
+		assertEquals("c.D", segments.get(6).getImports().get(1));
+		assertEquals(TemplateSegment.Type.IMPORTS, segments.get(7).getType());
+		assertEquals(TemplateSegment.Type.UNKNOWN, segments.get(8).getType());
+		assertEquals(TemplateSegment.Type.LITERAL, segments.get(9).getType());
+	}
+
+	public void testUnclosedPlaceholderIsLiteral() {
+		Template template = new Template("test", "a <%= b %> c <%= d");
+		List<TemplateSegment> segments = template.getSegments();
+
+		assertEquals(3, segments.size());
+		assertEquals(TemplateSegment.Type.LITERAL, segments.get(2).getType());
+		assertEquals(" c <%= d", segments.get(2).getSource());
+	}
+
+	public void testRenderVariablesAndImports() {
+		MapContext context = new MapContext(null);
+		context.variables.put("className", "Test");
+		TemplateRenderer renderer = new TemplateRenderer(context);
+		renderer.render(new Template("test", "package p;\n<%@ imports %>\n<%@ requires imports = \"z.Z,a.A\" %>"
+				+ "<%@ requires imports = \"a.A\" %>class <%= className %> {<%= unknown %>}"));
+
+		assertEquals("package p;\nimport a.A;\nimport z.Z;\n\nclass Test {}", renderer.getResult());
+	}
+
+	public void testNestedContextFallsBackToRootContext() {
+		MapContext root = new MapContext("map();");
+		root.variables.put("name", "root");
+		root.variables.put("rootOnly", "fromRoot");
+		MapContext nested = new MapContext(null);
+		nested.variables.put("name", "nested");
+
+		TemplateRenderer renderer = new TemplateRenderer(root);
+		renderer.render(new Template("test", "<%= name %> <%= rootOnly %> <%@ include mapreduce %>"), nested);
+
+		assertEquals("nested fromRoot map();", renderer.getResult());
+	}
+
+	public void testIncludeFile() {
+		FileUtils.writeStringIntoFile(new File(templateDirectory, "included.jtemp").getPath(), "<%@ requires imports = \"b.B\" %>included <%= name %>\n");
+		Config.setPathToTemplates(templateDirectory.getPath() + File.separator);
+
+		MapContext context = new MapContext(null);
+		context.variables.put("name", "value");
+		TemplateRenderer renderer = new TemplateRenderer(context);
+		renderer.render(new Template("test", "<%@ imports %>[<%@ include file = \"included.jtemp\" %>]"));
+
+		assertEquals("import b.B;\n[included value\n]", renderer.getResult());
+	}
+
+	public void testToJavaStringLiteral() {
+		assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\"", TemplateRenderer.toJavaStringLiteral("a\"b\\c\nd\re\tf"));
+		assertEquals("\"\"", TemplateRenderer.toJavaStringLiteral(""));
+	}
+}
@@ -0,0 +1,133 @@
+package de.tuberlin.schenck.taverna_to_hadoop.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the conversion server only accepts requests carrying its token.
+ *
+ * @author schenck
+ *
+ */
+public class ConversionServerTest extends TestCase {
+	private String userHome;
+	private File home;
+	private int port;
+	private Thread serverThread;
+
+	@Override
+	protected void setUp() throws Exception {
+		userHome = System.getProperty("user.home");
+		home = File.createTempFile("home", "");
+		home.delete();
+		home.mkdir();
+		System.setProperty("user.home", home.getPath());
+
+		ServerSocket freePort = new ServerSocket(0);
+		port = freePort.getLocalPort();
+		freePort.close();
+
+		serverThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					new ConversionServer(port, 1).run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		serverThread.start();
+
+		// The token is written once the server listens
+		for(int i = 0; i < 600 && !ServerToken.getFile(port).exists(); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(ServerToken.getFile(port).exists());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(serverThread.isAlive()) {
+			send(ConversionServer.COMMAND_SHUTDOWN, ServerToken.read(port));
+			serverThread.join(10000);
+		}
+
+		System.setProperty("user.home", userHome);
+		File tokenDirectory = ServerToken.getFile(port).getParentFile();
+		File[] tokenFiles = new File(home, tokenDirectory.getName()).listFiles();
+		if(tokenFiles != null) {
+			for(File tokenFile : tokenFiles) {
+				tokenFile.delete();
+			}
+		}
+		new File(home, tokenDirectory.getName()).delete();
+		home.delete();
+	}
+
+	/**
+	 * Sends a request to the server.
+	 *
+	 * @param command the command
+	 * @param token the token, <code>null</code> to send none
+	 * @return the first line of the answer
+	 */
+	private String send(String command, String token) throws Exception {
+		Socket socket = new Socket(InetAddress.getByName(null), port);
+		try {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), ConversionServer.ENCODING);
+			writer.write(command + "\n");
+			if(token != null)
+				writer.write(ConversionServer.KEY_TOKEN + "=" + token + "\n");
+			writer.write("\n");
+			writer.flush();
+
+			return new BufferedReader(new InputStreamReader(socket.getInputStream(), ConversionServer.ENCODING)).readLine();
+		} finally {
+			socket.close();
+		}
+	}
+
+	public void testRequestsWithoutValidTokenAreRejected() throws Exception {
+		assertTrue(send(ConversionServer.COMMAND_PING, null).startsWith(ConversionServer.ANSWER_FAILED));
+		assertTrue(send(ConversionServer.COMMAND_PING, "0123").startsWith(ConversionServer.ANSWER_FAILED));
+		assertTrue(send(ConversionServer.COMMAND_SHUTDOWN, "").startsWith(ConversionServer.ANSWER_FAILED));
+		assertTrue(send(ConversionServer.COMMAND_CONVERT, ServerToken.read(port) + "0").startsWith(ConversionServer.ANSWER_FAILED));
+
+		// Still running
+		assertEquals(ConversionServer.ANSWER_OK, send(ConversionServer.COMMAND_PING, ServerToken.read(port)));
+	}
+
+	public void testShutdownWithToken() throws Exception {
+		assertTrue(new ConversionClient(port).shutdown());
+		serverThread.join(10000);
+
+		assertFalse(serverThread.isAlive());
+		assertFalse(ServerToken.getFile(port).exists());
+	}
+
+	public void testTokenFileIsReadableByOwnerOnly() throws Exception {
+		try {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(ServerToken.getFile(port).toPath())));
+		} catch (UnsupportedOperationException e) {
+			// No POSIX permissions on this file system
+		}
+	}
+
+	public void testMatches() {
+		assertTrue(ServerToken.matches("abc", "abc"));
+		assertFalse(ServerToken.matches("abc", "abd"));
+		assertFalse(ServerToken.matches("abc", "ab"));
+		assertFalse(ServerToken.matches("abc", null));
+	}
+}
@@ -0,0 +1,118 @@
+package de.tuberlin.schenck.taverna_to_hadoop.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests finding the library classes of generated classes in class directories and jars.
+ *
+ * @author schenck
+ *
+ */
+public class JobDependenciesTest extends TestCase {
+	private File directory;
+	private File jar;
+	private Map<String, byte[]> generatedClasses;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("library", "");
+		directory.delete();
+		directory.mkdir();
+
+		// The generated class names the library class in a string constant only, like beanshell scripts do
+		generatedClasses = compile("generated.Job", "package generated; public class Job { String library = \"library.Helper\"; }");
+		Map<String, byte[]> libraryClasses = compile("library.Helper", "package library; public class Helper { Other other; } class Other {}");
+		libraryClasses.putAll(compile("unused.Unused", "package unused; public class Unused {}"));
+		for(Map.Entry<String, byte[]> libraryClass : libraryClasses.entrySet()) {
+			File classFile = new File(directory, libraryClass.getKey().replace('.', '/') + ".class");
+			classFile.getParentFile().mkdirs();
+			FileOutputStream outputStream = new FileOutputStream(classFile);
+			outputStream.write(libraryClass.getValue());
+			outputStream.close();
+		}
+
+		Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+		resources.put("library/commands/command.bsh", "command".getBytes("UTF-8"));
+		resources.put("other/resource.txt", "other".getBytes("UTF-8"));
+		jar = new File(directory.getPath() + ".jar");
+		assertTrue(FileUtils.writeJar(jar.getPath(), "library.Helper", libraryClasses, resources));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(directory);
+		jar.delete();
+	}
+
+	private static Map<String, byte[]> compile(String qualifiedClassName, String source) {
+		Map<String, byte[]> classFiles = FileUtils.compileInMemory(qualifiedClassName, source, new DiagnosticCollector<JavaFileObject>());
+		assertNotNull(qualifiedClassName, classFiles);
+		return classFiles;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private JobDependencies dependencies(File location, File converterLocation) throws Exception {
+		ClassLoader classLoader = new URLClassLoader(new URL[] { location.toURI().toURL() }, null);
+		return new JobDependencies(generatedClasses, classLoader, converterLocation);
+	}
+
+	public void testClassDirectory() throws Exception {
+		JobDependencies dependencies = dependencies(directory, null);
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+		Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+		dependencies.addTo(classFiles, resources, true);
+
+		assertTrue(dependencies.getJars().isEmpty());
+		assertEquals("[library.Helper, library.Other]", classFiles.keySet().toString());
+		assertTrue(resources.isEmpty());
+	}
+
+	public void testLibraryJar() throws Exception {
+		JobDependencies dependencies = dependencies(jar, null);
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+		Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+		dependencies.addTo(classFiles, resources, false);
+
+		assertEquals(Arrays.asList(jar), dependencies.getJars());
+		assertEquals("[library.Helper, library.Other]", classFiles.keySet().toString());
+		assertEquals("[library/commands/command.bsh, other/resource.txt]", resources.keySet().toString());
+
+		// Shared jars are left out
+		classFiles.clear();
+		resources.clear();
+		dependencies.addTo(classFiles, resources, true);
+		assertTrue(classFiles.isEmpty());
+		assertTrue(resources.isEmpty());
+	}
+
+	public void testConverterJar() throws Exception {
+		JobDependencies dependencies = dependencies(jar, jar);
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+		Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+		dependencies.addTo(classFiles, resources, true);
+
+		assertTrue(dependencies.getJars().isEmpty());
+		assertEquals("[library.Helper, library.Other]", classFiles.keySet().toString());
+		assertEquals("[library/commands/command.bsh]", resources.keySet().toString());
+	}
+}